@@ -0,0 +1,70 @@
+package com.tapstream.rollbar;
+
+import java.util.Map;
+
+/**
+ * What a queued item needs from its log event, captured on the logging thread and serialized later by the sender.
+ */
+public class CapturedEvent
+{
+
+    private final String level;
+    private final String message;
+    private final ThrowableSnapshot throwable;
+    private final Map<String, String> context;
+    private final long timestamp;
+
+    public CapturedEvent(String level, String message, ThrowableSnapshot throwable, Map<String, String> context, long timestamp)
+    {
+        this.level = level;
+        this.message = message;
+        this.throwable = throwable;
+        this.context = context;
+        this.timestamp = timestamp;
+    }
+
+    public static CapturedEvent capture(String level, String message, Throwable throwable, Map<String, String> context,
+                                        FrameDictionary dictionary)
+    {
+        ThrowableSnapshot snapshot = throwable == null ? null : ThrowableSnapshot.capture(throwable, dictionary);
+        return new CapturedEvent(level, message, snapshot, context, System.currentTimeMillis());
+    }
+
+    public String getLevel()
+    {
+        return level;
+    }
+
+    public String getMessage()
+    {
+        return message;
+    }
+
+    public ThrowableSnapshot getThrowable()
+    {
+        return throwable;
+    }
+
+    public Map<String, String> getContext()
+    {
+        return context;
+    }
+
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    /**
+     * {@link NotifyBuilder#fingerprintHash(String, Throwable)} of the captured event.
+     */
+    public int getFingerprintHash()
+    {
+        if (throwable == null)
+        {
+            return message == null ? 0 : message.hashCode();
+        }
+        return throwable.getFingerprintHash();
+    }
+
+}
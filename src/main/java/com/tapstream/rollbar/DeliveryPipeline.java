@@ -0,0 +1,576 @@
+package com.tapstream.rollbar;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds and delivers the items of one Rollbar project. With a queue size of zero items are sent on the logging
+ * thread; otherwise they are queued and sent by a dedicated thread, so a slow or saturated pipeline only ever drops its
+ * own items and never blocks callers or other pipelines. Queued items are held as compact {@link CapturedEvent}s and
+ * only turned into JSON by the sender, or, when an off-heap buffer is configured, serialized up front into an
+ * {@link OffHeapBuffer} so the backlog stays out of the Java heap.
+ * <p>
+ * Several sender threads can share the building and sending work. Each has its own share of the queue and items are
+ * assigned by fingerprint, so items with the same fingerprint are still sent in the order they were logged.
+ */
+public class DeliveryPipeline
+{
+
+    private static final Logger LOGGER = StatusLogger.getLogger();
+
+    private static final long POLL_MILLIS = 100;
+    private static final int MAX_SUMMARIES = 10000;
+
+    private final String name;
+    private final NotifyBuilder payloadBuilder;
+    private final int queueSize;
+    private final int batchSize;
+    private final RateLimiter rateLimiter;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final FrameDictionary frameStrings = new FrameDictionary(FrameDictionary.DEFAULT_CAPACITY);
+
+    private volatile URL url;
+    private volatile IHttpRequester transport;
+    private long offHeapBytes;
+    private long sheddingBudgetMicros;
+    private int sheddingSampleRate = 10;
+    private int senderThreads = 1;
+    private long summaryIntervalSeconds;
+
+    private List<BlockingQueue<Object>> queues;
+    private OffHeapBuffer offHeapBuffer;
+    private LoadShedder loadShedder;
+    private SummaryAggregator summaries;
+    private Thread summaryFlusher;
+    /** Summaries drained by the flusher but not yet sent when it was stopped. */
+    private final List<CapturedEvent> unsentSummaries = new ArrayList<>();
+    private final List<Thread> senders = new ArrayList<>();
+    private volatile boolean running;
+
+    /**
+     * @param queueSize items held while waiting to be sent, or 0 to send synchronously
+     * @param rateLimit items sent per second, or 0 for no limit
+     * @param batchSize items the sender takes off the queue per pass
+     */
+    public DeliveryPipeline(String name, NotifyBuilder payloadBuilder, int queueSize, double rateLimit, int batchSize)
+    {
+        this.name = name;
+        this.payloadBuilder = payloadBuilder;
+        this.queueSize = queueSize;
+        this.batchSize = Math.max(1, batchSize);
+        this.rateLimiter = rateLimit > 0 ? new RateLimiter(rateLimit) : null;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public long getDropped()
+    {
+        return dropped.get();
+    }
+
+    public int getQueued()
+    {
+        return queued.get();
+    }
+
+    /**
+     * Class, file and method names interned for queued and summarized stack traces, with its size and reset count.
+     */
+    public FrameDictionary getFrameStrings()
+    {
+        return frameStrings;
+    }
+
+    /**
+     * Number of threads building and sending queued items. Must be set before {@link #start()}.
+     */
+    public void setSenderThreads(int senderThreads)
+    {
+        this.senderThreads = Math.max(1, senderThreads);
+    }
+
+    /**
+     * Bytes of direct memory used by queued items, or 0 when they are held on the heap.
+     */
+    public long getOffHeapUsed()
+    {
+        return offHeapBuffer == null ? 0 : offHeapBuffer.getUsedBytes();
+    }
+
+    /**
+     * Holds queued items serialized in a direct memory arena of this many bytes. Must be set before {@link #start()}
+     * and only applies when items are queued. Items are built and serialized on the calling thread before they are
+     * copied in, so callers pay for building the payload. If the arena cannot be allocated items stay on the heap.
+     */
+    public void setOffHeapBytes(long offHeapBytes)
+    {
+        this.offHeapBytes = offHeapBytes;
+    }
+
+    /**
+     * Sets where items are sent: {@code url} is the request url and {@code transport} sends it, e.g. a
+     * {@link FailoverHttpRequester} shared with other pipelines that rewrites the url per endpoint.
+     */
+    public void setTransport(URL url, IHttpRequester transport)
+    {
+        this.url = url;
+        this.transport = transport;
+    }
+
+    /**
+     * Caps the average time spent per event on the logging thread, shedding load when it is exceeded or the queue is
+     * nearly full; 0 disables shedding. Only applies when items are queued. Must be set before {@link #start()}.
+     */
+    public void setSheddingBudgetMicros(long sheddingBudgetMicros)
+    {
+        this.sheddingBudgetMicros = sheddingBudgetMicros;
+    }
+
+    /**
+     * One in how many events is kept at the sampling level of load shedding.
+     */
+    public void setSheddingSampleRate(int sheddingSampleRate)
+    {
+        this.sheddingSampleRate = sheddingSampleRate;
+    }
+
+    /**
+     * Load shedding state, or null when shedding is disabled.
+     */
+    public LoadShedder getLoadShedder()
+    {
+        return loadShedder;
+    }
+
+    /**
+     * Sends events passed to {@link #summarize} as one item per fingerprint every this many seconds, carrying the
+     * count and rate; 0 sends them individually. Must be set before {@link #start()}.
+     */
+    public void setSummaryIntervalSeconds(long summaryIntervalSeconds)
+    {
+        this.summaryIntervalSeconds = summaryIntervalSeconds;
+    }
+
+    public void start()
+    {
+        NotifyBuilder.resolveServerInBackground();
+        if (sheddingBudgetMicros > 0 && queueSize <= 0)
+        {
+            // Without a queue the measured cost is dominated by the HTTP request, so the shedder would only ever climb
+            LOGGER.warn("Rollbar pipeline [" + name + "] sends on the logging thread, load shedding needs a queueSize");
+        } else if (sheddingBudgetMicros > 0)
+        {
+            loadShedder = new LoadShedder(sheddingBudgetMicros * 1000, sheddingSampleRate);
+        }
+        if (summaryIntervalSeconds > 0)
+        {
+            summaries = new SummaryAggregator(MAX_SUMMARIES, frameStrings);
+            summaryFlusher = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    summaryLoop();
+                }
+            }, "rollbar-summary-" + name);
+            summaryFlusher.setDaemon(true);
+            summaryFlusher.start();
+        }
+        if (queueSize <= 0)
+        {
+            return;
+        }
+        if (offHeapBytes > 0)
+        {
+            try
+            {
+                offHeapBuffer = new OffHeapBuffer(offHeapBytes, OffHeapBuffer.DEFAULT_SLOT_SIZE);
+            } catch (IllegalArgumentException | OutOfMemoryError e)
+            {
+                LOGGER.error("Could not allocate " + offHeapBytes + " off-heap bytes for Rollbar pipeline [" + name
+                             + "], queueing on the heap instead: " + e);
+            }
+        }
+        int threads = Math.min(senderThreads, queueSize);
+        List<BlockingQueue<Object>> queues = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++)
+        {
+            queues.add(new ArrayBlockingQueue<>(queueSize));
+        }
+        this.queues = queues;
+        running = true;
+        for (int i = 0; i < threads; i++)
+        {
+            final BlockingQueue<Object> queue = queues.get(i);
+            Thread sender = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    sendLoop(queue);
+                }
+            }, "rollbar-sender-" + name + "-" + i);
+            sender.setDaemon(true);
+            sender.start();
+            senders.add(sender);
+        }
+    }
+
+    /**
+     * Stops the senders, giving them and the final summaries up to {@code timeoutMillis} in total to flush what is
+     * already queued or counted.
+     */
+    public void stop(long timeoutMillis)
+    {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        if (summaryFlusher != null)
+        {
+            Thread flusher = summaryFlusher;
+            summaryFlusher = null;
+            flusher.interrupt();
+            try
+            {
+                flusher.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            flushSummaries(deadline);
+        }
+        running = false;
+        try
+        {
+            for (Thread sender : senders)
+            {
+                sender.join(Math.max(1, deadline - System.currentTimeMillis()));
+            }
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        boolean unsent = false;
+        for (Thread sender : senders)
+        {
+            if (sender.isAlive())
+            {
+                sender.interrupt();
+                unsent = true;
+            }
+        }
+        if (unsent)
+        {
+            LOGGER.warn("Rollbar pipeline [" + name + "] stopped with " + getQueued() + " items unsent");
+        }
+        senders.clear();
+    }
+
+    /**
+     * Counts a low value event towards its fingerprint's next summary item, or submits it normally when summaries are
+     * disabled or the summary table is full.
+     */
+    public void summarize(String level, String message, Throwable throwable, Map<String, String> context)
+    {
+        SummaryAggregator summaries = this.summaries;
+        if (summaries == null || !summaries.record(level, message, throwable, context))
+        {
+            submit(level, message, throwable, context);
+        }
+    }
+
+    public void submit(String level, String message, Throwable throwable, Map<String, String> context)
+    {
+        long start = System.nanoTime();
+        int sheddingLevel = admit();
+        if (sheddingLevel != LoadShedder.SHED)
+        {
+            submit(level, message, throwable, LoadShedder.reduce(context, sheddingLevel), start);
+        }
+    }
+
+    /**
+     * Decides, before any work is done for an event, at which {@link LoadShedder} level to capture it. Returns
+     * {@link LoadShedder#SHED}, already counted as dropped, when it is left out; callers should then skip building the
+     * event and otherwise reduce its context to the returned level and pass it to
+     * {@link #submit(String, String, Throwable, Map, long)}.
+     */
+    public int admit()
+    {
+        LoadShedder shedder = loadShedder;
+        if (shedder == null)
+        {
+            return LoadShedder.FULL;
+        }
+        long start = System.nanoTime();
+        int sheddingLevel = shedder.admit();
+        if (sheddingLevel == LoadShedder.SHED)
+        {
+            drop("load shedding");
+            shedder.record(System.nanoTime() - start, backlog());
+        }
+        return sheddingLevel;
+    }
+
+    /**
+     * Captures an admitted event whose context is already reduced, charging the time since {@code startNanos} to the
+     * load shedding budget.
+     */
+    public void submit(String level, String message, Throwable throwable, Map<String, String> context, long startNanos)
+    {
+        capture(level, message, throwable, context);
+        LoadShedder shedder = loadShedder;
+        if (shedder != null)
+        {
+            shedder.record(System.nanoTime() - startNanos, backlog());
+        }
+    }
+
+    private double backlog()
+    {
+        return queues == null ? 0 : (double) getQueued() / queueSize;
+    }
+
+    private void capture(String level, String message, Throwable throwable, Map<String, String> context)
+    {
+        Object jfrEvent = JfrEvents.beginCapture();
+        if (queues == null && rateLimiter != null && !rateLimiter.tryAcquire())
+        {
+            dropped.incrementAndGet();
+            JfrEvents.dropped(name, "rate limited");
+            return;
+        }
+
+        if (queues == null)
+        {
+            sendRequest(createRequest(build(level, message, throwable, context)));
+            JfrEvents.endCapture(jfrEvent, name, level);
+            return;
+        }
+
+        // Capacity is shared by all partitions, so a busy fingerprint can use slots the others leave free
+        if (queued.incrementAndGet() > queueSize)
+        {
+            queued.decrementAndGet();
+            drop("queue is full");
+            JfrEvents.endCapture(jfrEvent, name, level);
+            return;
+        }
+        CapturedEvent event = CapturedEvent.capture(level, message, throwable, context, frameStrings);
+        Object item = event;
+        if (offHeapBuffer != null)
+        {
+            item = offHeapBuffer.write(build(event, false));
+        }
+        if (item == null)
+        {
+            queued.decrementAndGet();
+            drop("off-heap buffer is full");
+        } else
+        {
+            // Each partition can hold queueSize items, so the offer only fails if the counter is wrong
+            queues.get((event.getFingerprintHash() & Integer.MAX_VALUE) % queues.size()).offer(item);
+        }
+        JfrEvents.endCapture(jfrEvent, name, level);
+    }
+
+    private void drop(String reason)
+    {
+        JfrEvents.dropped(name, reason);
+        if (dropped.getAndIncrement() == 0)
+        {
+            LOGGER.warn("Rollbar pipeline [" + name + "] " + reason + ", dropping items");
+        }
+    }
+
+    private byte[] build(String level, String message, Throwable throwable, Map<String, String> context)
+    {
+        Object jfrEvent = JfrEvents.beginBuild();
+        byte[] body = payloadBuilder.toBytes(payloadBuilder.build(level, message, throwable, context));
+        JfrEvents.endBuild(jfrEvent, name, body.length);
+        return body;
+    }
+
+    private byte[] build(CapturedEvent event)
+    {
+        return build(event, true);
+    }
+
+    /**
+     * @param lookupFrames false on the logging thread, which must not look up frame classes
+     */
+    private byte[] build(CapturedEvent event, boolean lookupFrames)
+    {
+        Object jfrEvent = JfrEvents.beginBuild();
+        byte[] body = payloadBuilder.toBytes(payloadBuilder.build(event, lookupFrames));
+        JfrEvents.endBuild(jfrEvent, name, body.length);
+        return body;
+    }
+
+    private byte[] toBody(Object item)
+    {
+        if (item instanceof OffHeapBuffer.Slice)
+        {
+            return offHeapBuffer.read((OffHeapBuffer.Slice) item);
+        }
+        return build((CapturedEvent) item);
+    }
+
+    private HttpRequest createRequest(byte[] body)
+    {
+        final HttpRequest request = new HttpRequest(url, "POST");
+        request.setHeader("Content-Type", "application/json");
+        request.setHeader("Accept", "application/json");
+        request.setBody(body);
+        return request;
+    }
+
+    /**
+     * Sends the summaries every interval. Each one is the only record of its count, so the flusher waits for the rate
+     * limiter instead of dropping them.
+     */
+    private void summaryLoop()
+    {
+        try
+        {
+            while (true)
+            {
+                Thread.sleep(summaryIntervalSeconds * 1000);
+                List<CapturedEvent> pending = takeSummaries();
+                for (int i = 0; i < pending.size(); i++)
+                {
+                    try
+                    {
+                        if (Thread.currentThread().isInterrupted())
+                        {
+                            throw new InterruptedException();
+                        }
+                        if (rateLimiter != null)
+                        {
+                            rateLimiter.acquire();
+                        }
+                    } catch (InterruptedException e)
+                    {
+                        synchronized (unsentSummaries)
+                        {
+                            unsentSummaries.addAll(pending.subList(i, pending.size()));
+                        }
+                        throw e;
+                    }
+                    sendRequest(createRequest(build(pending.get(i))));
+                }
+            }
+        } catch (InterruptedException e)
+        {
+            // Stopping; the final flush is done by stop()
+        }
+    }
+
+    /**
+     * Sends the remaining summaries from {@link #stop}, giving up on those that can't be sent before {@code deadline}.
+     */
+    private void flushSummaries(long deadline)
+    {
+        List<CapturedEvent> pending = takeSummaries();
+        for (int i = 0; i < pending.size(); i++)
+        {
+            long remaining = deadline - System.currentTimeMillis();
+            boolean permitted;
+            try
+            {
+                permitted = remaining > 0
+                            && (rateLimiter == null || rateLimiter.tryAcquire(remaining, TimeUnit.MILLISECONDS));
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                permitted = false;
+            }
+            if (!permitted)
+            {
+                LOGGER.warn("Rollbar pipeline [" + name + "] stopped with " + (pending.size() - i)
+                            + " summaries unsent");
+                return;
+            }
+            sendRequest(createRequest(build(pending.get(i))));
+        }
+    }
+
+    private List<CapturedEvent> takeSummaries()
+    {
+        List<CapturedEvent> pending;
+        synchronized (unsentSummaries)
+        {
+            pending = new ArrayList<>(unsentSummaries);
+            unsentSummaries.clear();
+        }
+        pending.addAll(summaries.drain());
+        return pending;
+    }
+
+    private void sendLoop(BlockingQueue<Object> queue)
+    {
+        List<Object> batch = new ArrayList<>(batchSize);
+        try
+        {
+            while (running || !queue.isEmpty())
+            {
+                Object first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null)
+                {
+                    continue;
+                }
+                Object jfrEvent = JfrEvents.beginBatch();
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                queued.addAndGet(-batch.size());
+                for (Object item : batch)
+                {
+                    if (rateLimiter != null)
+                    {
+                        rateLimiter.acquire();
+                    }
+                    sendRequest(createRequest(toBody(item)));
+                }
+                JfrEvents.endBatch(jfrEvent, name, batch.size());
+                batch.clear();
+            }
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sendRequest(HttpRequest request)
+    {
+        try
+        {
+            int statusCode = transport.send(request);
+            if (statusCode >= 200 && statusCode <= 299)
+            {
+                // Everything went OK
+            } else
+            {
+                LOGGER.error("Non-2xx response from Rollbar: " + statusCode);
+            }
+
+        } catch (IOException e)
+        {
+            LOGGER.error("Exception sending request to Rollbar", e);
+        }
+    }
+
+}
@@ -0,0 +1,231 @@
+package com.tapstream.rollbar;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spreads requests over several Rollbar endpoints. Each request goes to the healthy endpoint with the fewest requests
+ * in flight, ties going to the endpoint listed first, and a failed request is retried on the next healthy endpoint. An
+ * endpoint that fails {@code failureThreshold} times in a row is skipped; once {@code retryAfterMillis} has passed a
+ * single request probes it, and it only takes traffic again after the probe succeeds. When every endpoint is being
+ * skipped requests fail immediately instead of waiting on dead endpoints. A 429 means the endpoint is up but throttling,
+ * so the request moves on to the next endpoint without counting against the throttling one's health.
+ * <p>
+ * Health is tracked per instance, so pipelines sending to the same endpoints should share one.
+ */
+public class FailoverHttpRequester implements IHttpRequester
+{
+
+    private static final Logger LOGGER = StatusLogger.getLogger();
+
+    private final List<Endpoint> endpoints;
+    private volatile IHttpRequester delegate;
+
+    private volatile int failureThreshold = 3;
+    private volatile long retryAfterMillis = 30000;
+
+    public FailoverHttpRequester(List<URL> urls, IHttpRequester delegate)
+    {
+        if (urls.isEmpty())
+        {
+            throw new IllegalArgumentException("At least one endpoint is required");
+        }
+        List<Endpoint> endpoints = new ArrayList<>(urls.size());
+        for (int i = 0; i < urls.size(); i++)
+        {
+            endpoints.add(new Endpoint(urls.get(i), i));
+        }
+        this.endpoints = Collections.unmodifiableList(endpoints);
+        this.delegate = delegate;
+    }
+
+    /**
+     * Replaces the requester doing the actual sends, keeping the endpoints' health.
+     */
+    public void setDelegate(IHttpRequester delegate)
+    {
+        this.delegate = delegate;
+    }
+
+    public int getFailureThreshold()
+    {
+        return failureThreshold;
+    }
+
+    public void setFailureThreshold(int failureThreshold)
+    {
+        this.failureThreshold = failureThreshold;
+    }
+
+    public long getRetryAfterMillis()
+    {
+        return retryAfterMillis;
+    }
+
+    public void setRetryAfterMillis(long retryAfterMillis)
+    {
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    @Override
+    public int send(HttpRequest request) throws IOException
+    {
+        IOException lastError = null;
+        int lastStatus = -1;
+
+        long now = System.currentTimeMillis();
+        Endpoint probe = claimProbe(now);
+        List<Endpoint> candidates = candidates();
+        if (probe != null)
+        {
+            candidates.add(0, probe);
+        }
+        if (candidates.isEmpty())
+        {
+            throw new IOException("All Rollbar endpoints are unhealthy");
+        }
+
+        try
+        {
+            for (Endpoint endpoint : candidates)
+            {
+                endpoint.outstanding.incrementAndGet();
+                try
+                {
+                    int statusCode = delegate.send(request.withUrl(endpoint.url));
+                    if (statusCode == 429)
+                    {
+                        lastStatus = statusCode;
+                        continue;
+                    }
+                    if (isEndpointFailure(statusCode))
+                    {
+                        endpoint.recordFailure();
+                        lastStatus = statusCode;
+                        continue;
+                    }
+                    endpoint.recordSuccess();
+                    return statusCode;
+                } catch (IOException e)
+                {
+                    endpoint.recordFailure();
+                    lastError = e;
+                } finally
+                {
+                    endpoint.outstanding.decrementAndGet();
+                }
+            }
+        } finally
+        {
+            if (probe != null)
+            {
+                probe.probing.set(false);
+            }
+        }
+
+        if (lastStatus < 0 && lastError != null)
+        {
+            throw lastError;
+        }
+        return lastStatus;
+    }
+
+    /**
+     * Healthy endpoints ordered by load and preference.
+     */
+    List<Endpoint> candidates()
+    {
+        List<Endpoint> healthy = new ArrayList<>(endpoints.size() + 1);
+        for (Endpoint endpoint : endpoints)
+        {
+            if (endpoint.isHealthy())
+            {
+                healthy.add(endpoint);
+            }
+        }
+        Collections.sort(healthy, BY_LOAD);
+        return healthy;
+    }
+
+    /**
+     * Claims the first unhealthy endpoint whose cooldown has passed and that nobody else is probing, or returns null.
+     * The caller must clear {@code probing} when done.
+     */
+    private Endpoint claimProbe(long now)
+    {
+        for (Endpoint endpoint : endpoints)
+        {
+            if (!endpoint.isHealthy() && now - endpoint.lastFailure.get() >= retryAfterMillis
+                    && endpoint.probing.compareAndSet(false, true))
+            {
+                return endpoint;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isEndpointFailure(int statusCode)
+    {
+        return statusCode >= 500;
+    }
+
+    private static final Comparator<Endpoint> BY_LOAD = new Comparator<Endpoint>()
+    {
+        @Override
+        public int compare(Endpoint a, Endpoint b)
+        {
+            int cmp = Integer.compare(a.outstanding.get(), b.outstanding.get());
+            return cmp != 0 ? cmp : Integer.compare(a.index, b.index);
+        }
+    };
+
+    final class Endpoint
+    {
+
+        final URL url;
+        final int index;
+        final AtomicInteger outstanding = new AtomicInteger();
+        final AtomicBoolean probing = new AtomicBoolean();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private final AtomicLong lastFailure = new AtomicLong();
+
+        Endpoint(URL url, int index)
+        {
+            this.url = url;
+            this.index = index;
+        }
+
+        boolean isHealthy()
+        {
+            return consecutiveFailures.get() < failureThreshold;
+        }
+
+        void recordFailure()
+        {
+            lastFailure.set(System.currentTimeMillis());
+            if (consecutiveFailures.incrementAndGet() == failureThreshold)
+            {
+                LOGGER.warn("Rollbar endpoint " + url + " marked unhealthy after " + failureThreshold + " failures");
+            }
+        }
+
+        void recordSuccess()
+        {
+            if (consecutiveFailures.getAndSet(0) >= failureThreshold)
+            {
+                LOGGER.info("Rollbar endpoint " + url + " is healthy again");
+            }
+        }
+    }
+
+}
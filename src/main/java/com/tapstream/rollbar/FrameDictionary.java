@@ -0,0 +1,80 @@
+package com.tapstream.rollbar;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The {@link StringDictionary} a pipeline's {@link ThrowableSnapshot}s intern their frame strings in. When it fills up
+ * (e.g. with generated class names) it is replaced by an empty one; snapshots keep the dictionary they were captured
+ * with, so the old one is collected once the items using it are sent.
+ */
+public class FrameDictionary
+{
+
+    private static final Logger LOGGER = StatusLogger.getLogger();
+
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private final int capacity;
+    private final AtomicReference<StringDictionary> current = new AtomicReference<>();
+    private final AtomicLong resets = new AtomicLong();
+
+    public FrameDictionary(int capacity)
+    {
+        this.capacity = capacity;
+    }
+
+    /**
+     * The dictionary new snapshots intern into, created on first use.
+     */
+    StringDictionary current()
+    {
+        StringDictionary dictionary = current.get();
+        if (dictionary == null)
+        {
+            current.compareAndSet(null, new StringDictionary(capacity));
+            dictionary = current.get();
+        }
+        return dictionary;
+    }
+
+    /**
+     * Replaces {@code full} with an empty dictionary unless another thread already did, returning the one to use.
+     */
+    StringDictionary reset(StringDictionary full)
+    {
+        if (current.compareAndSet(full, new StringDictionary(capacity)))
+        {
+            long count = resets.incrementAndGet();
+            LOGGER.debug("Rollbar frame dictionary full after " + full.size() + " strings, reset " + count + " times");
+        }
+        return current.get();
+    }
+
+    /**
+     * Strings held by the current dictionary.
+     */
+    public int size()
+    {
+        StringDictionary dictionary = current.get();
+        return dictionary == null ? 0 : dictionary.size();
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Number of times the dictionary filled up and was replaced; a steadily growing count means frame strings are not
+     * repeating and interning them does not pay off.
+     */
+    public long getResets()
+    {
+        return resets.get();
+    }
+
+}
@@ -0,0 +1,451 @@
+package com.tapstream.rollbar;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Adds where a frame's class was loaded from to stack frames: the jar (or classes directory) name, the jar's version and
+ * whether the class belongs to the application. Each class is looked up once, through its {@link ProtectionDomain} and
+ * the jar manifest, and the result is cached; manifests are read once per jar. Later frames of the same class only cost
+ * a map lookup. Both caches are bounded: once full, classes not yet seen are no longer looked up.
+ * <p>
+ * Classes are loaded through the context class loader of the thread that logged the event, so two applications
+ * bundling the same library each get their own jar. Results are cached per class name and loader, holding the loader
+ * only weakly, so a redeployed application's loader can still be collected.
+ * <p>
+ * Frames built on the logging thread only use the cache: a class not yet cached is looked up by a background thread
+ * and that frame goes without its jar. Frames built by sender threads look their classes up directly.
+ */
+public class FrameEnricher
+{
+
+    public static final int DEFAULT_MAX_CLASSES = 10000;
+
+    /** Classes waiting for the background lookup; beyond this, uncached classes are left for a later event. */
+    private static final int MAX_PENDING = 1024;
+
+    private static final ClassInfo UNKNOWN = new ClassInfo(null, null);
+
+    private final String[] appPackages;
+    private final int maxClasses;
+    private final ClassLoader fallbackLoader = FrameEnricher.class.getClassLoader();
+
+    /** Lookups by class name; buckets are replaced, never modified, and only while holding this enricher. */
+    private final ConcurrentMap<String, Cached[]> classes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> versions = new ConcurrentHashMap<>();
+    private volatile int size;
+    private final AtomicLong lookups = new AtomicLong();
+
+    private final BlockingQueue<Request> requests = new ArrayBlockingQueue<>(MAX_PENDING);
+    private final ConcurrentMap<String, Boolean> pending = new ConcurrentHashMap<>();
+    private Thread resolver;
+    private boolean closed;
+
+    /**
+     * @param appPackages package prefixes whose classes are flagged as in-app; when empty no frame is flagged
+     */
+    public FrameEnricher(String[] appPackages, int maxClasses)
+    {
+        this.appPackages = appPackages == null ? new String[0] : appPackages;
+        this.maxClasses = maxClasses;
+    }
+
+    /**
+     * Parses a comma separated list of package prefixes.
+     */
+    static String[] parsePackages(String packages)
+    {
+        List<String> result = new ArrayList<>();
+        if (packages != null)
+        {
+            for (String part : packages.split(","))
+            {
+                if (!part.trim().isEmpty())
+                {
+                    result.add(part.trim());
+                }
+            }
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    /**
+     * Returns what is known about a class seen through {@code loader}, looking it up on this thread on first use. If
+     * the cache is full, classes not yet seen are not looked up.
+     */
+    public ClassInfo lookup(String className, ClassLoader loader)
+    {
+        loader = loader == null ? fallbackLoader : loader;
+        ClassInfo info = cached(className, loader);
+        if (info != null)
+        {
+            return info;
+        }
+        if (size >= maxClasses)
+        {
+            return UNKNOWN;
+        }
+        return add(className, loader, resolve(className, loader));
+    }
+
+    /**
+     * Returns what is cached about a class without blocking, or null after handing it to the background lookup.
+     */
+    public ClassInfo lookupCached(String className, ClassLoader loader)
+    {
+        loader = loader == null ? fallbackLoader : loader;
+        ClassInfo info = cached(className, loader);
+        if (info == null && size < maxClasses && pending.putIfAbsent(className, Boolean.TRUE) == null)
+        {
+            if (!requests.offer(new Request(className, loader)) || !startResolver())
+            {
+                pending.remove(className);
+            }
+        }
+        return info;
+    }
+
+    /**
+     * Number of classes looked up so far, including those looked up again after their loader was collected.
+     */
+    public long getLookups()
+    {
+        return lookups.get();
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isInApp(String className)
+    {
+        for (String prefix : appPackages)
+        {
+            if (className.startsWith(prefix))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stops the background lookup; lookups on the calling thread keep working.
+     */
+    public synchronized void close()
+    {
+        closed = true;
+        if (resolver != null)
+        {
+            resolver.interrupt();
+            resolver = null;
+        }
+        requests.clear();
+        pending.clear();
+    }
+
+    private synchronized boolean startResolver()
+    {
+        if (closed)
+        {
+            return false;
+        }
+        if (resolver == null)
+        {
+            resolver = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    resolveLoop();
+                }
+            }, "rollbar-frame-lookup");
+            resolver.setDaemon(true);
+            resolver.setPriority(Thread.MIN_PRIORITY);
+            resolver.start();
+        }
+        return true;
+    }
+
+    private void resolveLoop()
+    {
+        try
+        {
+            while (!Thread.currentThread().isInterrupted())
+            {
+                Request request = requests.take();
+                try
+                {
+                    lookup(request.className, request.loader);
+                } finally
+                {
+                    pending.remove(request.className);
+                }
+            }
+        } catch (InterruptedException e)
+        {
+            // Closed
+        }
+    }
+
+    private ClassInfo cached(String className, ClassLoader loader)
+    {
+        Cached[] bucket = classes.get(className);
+        if (bucket != null)
+        {
+            for (Cached cached : bucket)
+            {
+                if (cached.loader.get() == loader)
+                {
+                    return cached.info;
+                }
+            }
+        }
+        return null;
+    }
+
+    private synchronized ClassInfo add(String className, ClassLoader loader, ClassInfo info)
+    {
+        ClassInfo existing = cached(className, loader);
+        if (existing != null)
+        {
+            return existing;
+        }
+        if (size >= maxClasses)
+        {
+            removeCollected();
+            if (size >= maxClasses)
+            {
+                return info;
+            }
+        }
+        Cached[] bucket = classes.get(className);
+        List<Cached> grown = new ArrayList<>();
+        if (bucket != null)
+        {
+            for (Cached cached : bucket)
+            {
+                if (cached.loader.get() != null)
+                {
+                    grown.add(cached);
+                }
+            }
+        }
+        size -= (bucket == null ? 0 : bucket.length) - grown.size();
+        grown.add(new Cached(loader, info));
+        classes.put(className, grown.toArray(new Cached[grown.size()]));
+        size++;
+        return info;
+    }
+
+    /**
+     * Drops the entries of loaders that were collected, e.g. after an application was redeployed.
+     */
+    private void removeCollected()
+    {
+        for (Iterator<Map.Entry<String, Cached[]>> it = classes.entrySet().iterator(); it.hasNext(); )
+        {
+            Map.Entry<String, Cached[]> entry = it.next();
+            List<Cached> live = new ArrayList<>();
+            for (Cached cached : entry.getValue())
+            {
+                if (cached.loader.get() != null)
+                {
+                    live.add(cached);
+                }
+            }
+            size -= entry.getValue().length - live.size();
+            if (live.isEmpty())
+            {
+                it.remove();
+            } else if (live.size() < entry.getValue().length)
+            {
+                entry.setValue(live.toArray(new Cached[live.size()]));
+            }
+        }
+    }
+
+    private ClassInfo resolve(String className, ClassLoader loader)
+    {
+        lookups.incrementAndGet();
+        Class<?> type = loadClass(className, loader);
+        if (type == null)
+        {
+            return UNKNOWN;
+        }
+
+        URL location = null;
+        try
+        {
+            ProtectionDomain domain = type.getProtectionDomain();
+            CodeSource source = domain == null ? null : domain.getCodeSource();
+            location = source == null ? null : source.getLocation();
+        } catch (SecurityException e)
+        {
+            // Treated like a class without a code source
+        }
+        if (location == null)
+        {
+            return UNKNOWN;
+        }
+
+        String version = null;
+        Package pkg = type.getPackage();
+        if (pkg != null)
+        {
+            version = pkg.getImplementationVersion();
+        }
+        if (version == null)
+        {
+            version = manifestVersion(location);
+        }
+        return new ClassInfo(locationName(location), version);
+    }
+
+    private Class<?> loadClass(String className, ClassLoader loader)
+    {
+        try
+        {
+            return Class.forName(className, false, loader);
+        } catch (ClassNotFoundException | LinkageError e)
+        {
+            // The logging thread's loader may not see the appender's own dependencies
+        }
+        if (loader == fallbackLoader)
+        {
+            return null;
+        }
+        try
+        {
+            return Class.forName(className, false, fallbackLoader);
+        } catch (ClassNotFoundException | LinkageError e)
+        {
+            return null;
+        }
+    }
+
+    static String locationName(URL location)
+    {
+        String path = location.getPath();
+        int end = path.length();
+        while (end > 0 && path.charAt(end - 1) == '/')
+        {
+            end--;
+        }
+        int start = path.lastIndexOf('/', end - 1) + 1;
+        return path.substring(start, end);
+    }
+
+    /**
+     * Reads the version from a jar's manifest, once per jar.
+     */
+    private String manifestVersion(URL location)
+    {
+        String key = location.toString();
+        String version = versions.get(key);
+        if (version == null)
+        {
+            version = readManifestVersion(location);
+            if (versions.size() < maxClasses)
+            {
+                versions.putIfAbsent(key, version);
+            }
+        }
+        return version.isEmpty() ? null : version;
+    }
+
+    private static String readManifestVersion(URL location)
+    {
+        if (!"file".equals(location.getProtocol()) || !location.getPath().endsWith(".jar"))
+        {
+            return "";
+        }
+        try (JarFile jar = new JarFile(new File(location.toURI())))
+        {
+            Manifest manifest = jar.getManifest();
+            if (manifest == null)
+            {
+                return "";
+            }
+            Attributes attributes = manifest.getMainAttributes();
+            String version = attributes.getValue(Attributes.Name.IMPLEMENTATION_VERSION);
+            if (version == null)
+            {
+                version = attributes.getValue("Bundle-Version");
+            }
+            return version == null ? "" : version;
+        } catch (IOException | URISyntaxException | IllegalArgumentException | SecurityException e)
+        {
+            return "";
+        }
+    }
+
+    private static final class Cached
+    {
+
+        final WeakReference<ClassLoader> loader;
+        final ClassInfo info;
+
+        Cached(ClassLoader loader, ClassInfo info)
+        {
+            this.loader = new WeakReference<>(loader);
+            this.info = info;
+        }
+    }
+
+    private static final class Request
+    {
+
+        final String className;
+        final ClassLoader loader;
+
+        Request(String className, ClassLoader loader)
+        {
+            this.className = className;
+            this.loader = loader;
+        }
+    }
+
+    public static final class ClassInfo
+    {
+
+        private final String jar;
+        private final String version;
+
+        ClassInfo(String jar, String version)
+        {
+            this.jar = jar;
+            this.version = version;
+        }
+
+        /** File name of the jar or classes directory the class was loaded from, or null (e.g. for JDK classes). */
+        public String getJar()
+        {
+            return jar;
+        }
+
+        public String getVersion()
+        {
+            return version;
+        }
+    }
+
+}
@@ -18,6 +18,16 @@ public class HttpRequest {
         this.requestProperties = new HashMap<String, String>();
     }
     
+    /**
+     * Returns a copy of this request aimed at another url. Headers and body are shared with the original.
+     */
+    public HttpRequest withUrl(URL url) {
+        HttpRequest copy = new HttpRequest(url, method);
+        copy.requestProperties.putAll(requestProperties);
+        copy.body = body;
+        return copy;
+    }
+
     public URL getUrl(){
         return url;
     }
@@ -42,6 +52,10 @@ public class HttpRequest {
         }
     }
     
+    public void setBody(byte[] body) {
+        this.body = body;
+    }
+
     public byte[] getBody(){
         return this.body;
     }
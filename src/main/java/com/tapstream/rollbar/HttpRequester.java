@@ -2,6 +2,7 @@ package com.tapstream.rollbar;
 
 import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
@@ -23,6 +24,9 @@ public class HttpRequester implements IHttpRequester {
     public int send(HttpRequest request) throws IOException{
         
         URL url = request.getUrl();
+        Object jfrEvent = JfrEvents.beginHttpRequest();
+        int statusCode = -1;
+        boolean reusable = false;
         HttpURLConnection connection = (HttpURLConnection) url.openConnection();
 
         try {
@@ -40,11 +44,31 @@ public class HttpRequester implements IHttpRequester {
                 writeBody(body, connection);
             }
 
-            return connection.getResponseCode();
+            statusCode = connection.getResponseCode();
+            discardResponse(connection, statusCode);
+            reusable = true;
+            return statusCode;
             
         } finally {
-            if (connection != null)
+            if (!reusable)
                 connection.disconnect();
+            JfrEvents.endHttpRequest(jfrEvent, url, statusCode);
+        }
+    }
+
+    /**
+     * Reads the response to the end so the connection, and its TLS session, go back to the keep-alive cache for the
+     * next request instead of being closed.
+     */
+    private void discardResponse(HttpURLConnection connection, int statusCode) throws IOException {
+        InputStream in = statusCode >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        if (in == null)
+            return;
+        try (InputStream response = in) {
+            byte[] buffer = new byte[512];
+            while (response.read(buffer) != -1) {
+                // Discard
+            }
         }
     }
     
@@ -0,0 +1,94 @@
+package com.tapstream.rollbar;
+
+import java.net.URL;
+
+/**
+ * Java Flight Recorder events for the appender's internals. They are disabled by default, including in the JDK's
+ * {@code default} and {@code profile} settings, and record no stack traces; enable them by name in the recording
+ * settings. The static methods are safe to call on JVMs without the {@code jdk.jfr} module: this class mentions no JFR
+ * type, and {@link JfrRecorder}, which holds them all, is only loaded once {@code jdk.jfr.Event} was found. Timed
+ * events are started with a {@code begin} method, which returns null when the event is not being recorded, and
+ * finished by passing that handle to the matching {@code end} method.
+ */
+public final class JfrEvents
+{
+
+    private static final boolean AVAILABLE = isAvailable();
+
+    private JfrEvents()
+    {
+    }
+
+    private static boolean isAvailable()
+    {
+        try
+        {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (Throwable e)
+        {
+            return false;
+        }
+    }
+
+    public static Object beginCapture()
+    {
+        return AVAILABLE ? JfrRecorder.beginCapture() : null;
+    }
+
+    public static void endCapture(Object handle, String pipeline, String level)
+    {
+        if (handle != null)
+        {
+            JfrRecorder.endCapture(handle, pipeline, level);
+        }
+    }
+
+    public static Object beginBuild()
+    {
+        return AVAILABLE ? JfrRecorder.beginBuild() : null;
+    }
+
+    public static void endBuild(Object handle, String pipeline, int size)
+    {
+        if (handle != null)
+        {
+            JfrRecorder.endBuild(handle, pipeline, size);
+        }
+    }
+
+    public static Object beginBatch()
+    {
+        return AVAILABLE ? JfrRecorder.beginBatch() : null;
+    }
+
+    public static void endBatch(Object handle, String pipeline, int items)
+    {
+        if (handle != null)
+        {
+            JfrRecorder.endBatch(handle, pipeline, items);
+        }
+    }
+
+    public static Object beginHttpRequest()
+    {
+        return AVAILABLE ? JfrRecorder.beginHttpRequest() : null;
+    }
+
+    public static void endHttpRequest(Object handle, URL url, int status)
+    {
+        if (handle != null)
+        {
+            JfrRecorder.endHttpRequest(handle, url, status);
+        }
+    }
+
+    public static void dropped(String pipeline, String reason)
+    {
+        if (AVAILABLE)
+        {
+            JfrRecorder.dropped(pipeline, reason);
+        }
+    }
+
+}
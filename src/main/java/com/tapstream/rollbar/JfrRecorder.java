@@ -0,0 +1,189 @@
+package com.tapstream.rollbar;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.net.URL;
+
+/**
+ * Holds every reference to {@code jdk.jfr} for {@link JfrEvents}, so that it is only linked when JFR is available.
+ */
+final class JfrRecorder
+{
+
+    private JfrRecorder()
+    {
+    }
+
+    static Object beginCapture()
+    {
+        return begin(new EventCaptured());
+    }
+
+    static Object beginBuild()
+    {
+        return begin(new PayloadBuilt());
+    }
+
+    static Object beginBatch()
+    {
+        return begin(new BatchFlushed());
+    }
+
+    static Object beginHttpRequest()
+    {
+        return begin(new HttpRequestSent());
+    }
+
+    private static Object begin(Event event)
+    {
+        if (!event.isEnabled())
+        {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void endCapture(Object handle, String pipeline, String level)
+    {
+        EventCaptured event = (EventCaptured) handle;
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.pipeline = pipeline;
+            event.level = level;
+            event.commit();
+        }
+    }
+
+    static void endBuild(Object handle, String pipeline, int size)
+    {
+        PayloadBuilt event = (PayloadBuilt) handle;
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.pipeline = pipeline;
+            event.size = size;
+            event.commit();
+        }
+    }
+
+    static void endBatch(Object handle, String pipeline, int items)
+    {
+        BatchFlushed event = (BatchFlushed) handle;
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.pipeline = pipeline;
+            event.items = items;
+            event.commit();
+        }
+    }
+
+    static void endHttpRequest(Object handle, URL url, int status)
+    {
+        HttpRequestSent event = (HttpRequestSent) handle;
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.url = url.toString();
+            event.status = status;
+            event.commit();
+        }
+    }
+
+    static void dropped(String pipeline, String reason)
+    {
+        Dropped event = new Dropped();
+        if (event.isEnabled())
+        {
+            event.pipeline = pipeline;
+            event.reason = reason;
+            event.commit();
+        }
+    }
+
+    @Name("com.tapstream.rollbar.EventCaptured")
+    @Label("Rollbar Event Captured")
+    @Category("Rollbar")
+    @Enabled(false)
+    @StackTrace(false)
+    @Description("Work done on the logging thread for one event")
+    static class EventCaptured extends Event
+    {
+        @Label("Pipeline")
+        String pipeline;
+
+        @Label("Level")
+        String level;
+    }
+
+    @Name("com.tapstream.rollbar.PayloadBuilt")
+    @Label("Rollbar Payload Built")
+    @Category("Rollbar")
+    @Enabled(false)
+    @StackTrace(false)
+    @Description("Item built by NotifyBuilder and serialized")
+    static class PayloadBuilt extends Event
+    {
+        @Label("Pipeline")
+        String pipeline;
+
+        @Label("Size")
+        @DataAmount
+        int size;
+    }
+
+    @Name("com.tapstream.rollbar.BatchFlushed")
+    @Label("Rollbar Batch Flushed")
+    @Category("Rollbar")
+    @Enabled(false)
+    @StackTrace(false)
+    @Description("Queued items taken and sent by a sender in one pass")
+    static class BatchFlushed extends Event
+    {
+        @Label("Pipeline")
+        String pipeline;
+
+        @Label("Items")
+        int items;
+    }
+
+    @Name("com.tapstream.rollbar.HttpRequest")
+    @Label("Rollbar HTTP Request")
+    @Category("Rollbar")
+    @Enabled(false)
+    @StackTrace(false)
+    @Description("Request to a Rollbar endpoint; status is -1 when no response was received")
+    static class HttpRequestSent extends Event
+    {
+        @Label("URL")
+        String url;
+
+        @Label("Status")
+        int status;
+    }
+
+    @Name("com.tapstream.rollbar.Dropped")
+    @Label("Rollbar Item Dropped")
+    @Category("Rollbar")
+    @Enabled(false)
+    @StackTrace(false)
+    @Description("Item that was not sent")
+    static class Dropped extends Event
+    {
+        @Label("Pipeline")
+        String pipeline;
+
+        @Label("Reason")
+        String reason;
+    }
+
+}
@@ -0,0 +1,169 @@
+package com.tapstream.rollbar;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps the appender's cost on the logging thread within a budget. It tracks a moving average of the time spent per
+ * event and how full the sender's queue is; while either is over budget it steps up one degradation level at a time,
+ * first leaving out request headers and parameters, then custom data, then only keeping one event in
+ * {@code sampleRate}. It steps back down once both are comfortably below budget again.
+ */
+public class LoadShedder
+{
+
+    private static final Logger LOGGER = StatusLogger.getLogger();
+
+    public static final int FULL = 0;
+    public static final int NO_REQUEST_DATA = 1;
+    public static final int NO_CUSTOM_DATA = 2;
+    public static final int SAMPLING = 3;
+
+    /** Returned by {@link #admit()} for events that are sampled out. */
+    public static final int SHED = -1;
+
+    private static final String[] LEVEL_NAMES = {"full", "no request data", "no custom data", "sampling"};
+
+    private static final long ADJUST_INTERVAL_NANOS = 100000000L;
+    private static final double BACKLOG_LIMIT = 0.8;
+    private static final int AVERAGE_WEIGHT = 16;
+
+    private final long budgetNanos;
+    private final int sampleRate;
+
+    private final AtomicInteger level = new AtomicInteger(FULL);
+    private final AtomicLong averageNanos = new AtomicLong();
+    private final AtomicLong lastAdjust = new AtomicLong(System.nanoTime());
+    private final AtomicLong sampleCounter = new AtomicLong();
+    private final AtomicLongArray admitted = new AtomicLongArray(LEVEL_NAMES.length);
+    private final AtomicLong shed = new AtomicLong();
+
+    public LoadShedder(long budgetNanos, int sampleRate)
+    {
+        this.budgetNanos = budgetNanos;
+        this.sampleRate = Math.max(1, sampleRate);
+    }
+
+    /**
+     * Returns the degradation level to capture the next event at, or {@link #SHED} to leave it out.
+     */
+    public int admit()
+    {
+        int current = level.get();
+        if (current == SAMPLING && sampleCounter.getAndIncrement() % sampleRate != 0)
+        {
+            shed.incrementAndGet();
+            return SHED;
+        }
+        admitted.incrementAndGet(current);
+        return current;
+    }
+
+    /**
+     * Strips the context down to what the given level keeps.
+     */
+    public static Map<String, String> reduce(Map<String, String> context, int level)
+    {
+        if (level == FULL)
+        {
+            return context;
+        }
+        Map<String, String> reduced = new HashMap<>();
+        copy(context, reduced, level);
+        return reduced;
+    }
+
+    /**
+     * Copies the entries of {@code source} that the given level keeps into {@code target}, so callers can take the
+     * context snapshot and strip it in one pass.
+     */
+    public static void copy(Map<String, String> source, Map<String, String> target, int level)
+    {
+        if (source == null)
+        {
+            return;
+        }
+        for (Map.Entry<String, String> entry : source.entrySet())
+        {
+            if (level == FULL || keeps(entry.getKey(), level))
+            {
+                target.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private static boolean keeps(String key, int level)
+    {
+        if (key.startsWith(RollbarFilter.REQUEST_HEADER_PREFIX) || key.startsWith(RollbarFilter.REQUEST_PARAM_PREFIX))
+        {
+            return false;
+        }
+        return level < NO_CUSTOM_DATA || key.startsWith(RollbarFilter.REQUEST_PREFIX) || NotifyBuilder.isReservedKey(key);
+    }
+
+    /**
+     * Records the logging thread's cost for one event and the sender's queue fill ratio, adjusting the level at most
+     * every 100ms. Concurrent updates of the average may lose samples, which is fine for a moving average.
+     */
+    public void record(long costNanos, double backlog)
+    {
+        long average = averageNanos.get();
+        averageNanos.set(average + (costNanos - average) / AVERAGE_WEIGHT);
+
+        long now = System.nanoTime();
+        long last = lastAdjust.get();
+        if (now - last < ADJUST_INTERVAL_NANOS || !lastAdjust.compareAndSet(last, now))
+        {
+            return;
+        }
+
+        int current = level.get();
+        average = averageNanos.get();
+        if ((average > budgetNanos || backlog > BACKLOG_LIMIT) && current < SAMPLING)
+        {
+            changeLevel(current, current + 1, average, backlog);
+        } else if (average < budgetNanos / 2 && backlog < BACKLOG_LIMIT / 2 && current > FULL)
+        {
+            changeLevel(current, current - 1, average, backlog);
+        }
+    }
+
+    private void changeLevel(int from, int to, long average, double backlog)
+    {
+        if (level.compareAndSet(from, to))
+        {
+            LOGGER.warn("Rollbar load shedding changed from [" + LEVEL_NAMES[from] + "] to [" + LEVEL_NAMES[to]
+                        + "]: " + average / 1000 + "us per event, queue " + Math.round(backlog * 100) + "% full");
+        }
+    }
+
+    public int getLevel()
+    {
+        return level.get();
+    }
+
+    /**
+     * Events captured at the given level since start.
+     */
+    public long getAdmitted(int level)
+    {
+        return admitted.get(level);
+    }
+
+    public long getShed()
+    {
+        return shed.get();
+    }
+
+    public long getAverageNanos()
+    {
+        return averageNanos.get();
+    }
+
+}
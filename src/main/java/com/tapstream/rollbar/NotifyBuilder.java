@@ -1,36 +1,154 @@
 package com.tapstream.rollbar;
 
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Map;
 import java.util.Map.Entry;
-
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds Rollbar item payloads. Instances hold only immutable configuration and every payload is a fresh tree, so one
+ * builder can be shared by any number of threads; per-thread scratch objects are reused between builds. The local host
+ * for the server block is looked up in the background, see {@link #resolveServerInBackground()}.
+ */
 public class NotifyBuilder {
 
     private static final String NOTIFIER_VERSION = "1.0";
 
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
     private static final String PERSON_EMAIL_KEY = "person.email";
     private static final String PERSON_USERNAME_KEY = "person.username";
     private static final String PERSON_ID_KEY = "person.id";
     private static final String UUID_KEY = "uuid";
 
+    /** Scratch buffers larger than this are not kept for reuse. */
+    private static final int MAX_SCRATCH_BYTES = 64 * 1024;
+
+    /** Scratch buffers kept per builder; threads beyond this many building at once allocate their own. */
+    private static final int MAX_POOLED_SCRATCH = 8;
+
+    private static final Gson GSON = new GsonBuilder().serializeNulls().disableHtmlEscaping().create();
+
     private final String accessToken;
     private final String environment;
 
-    private final JsonObject notifierData;
-    private final JsonObject serverData;
+    private final FrameEnricher frameEnricher;
+    private final BlockingQueue<Scratch> scratches = new ArrayBlockingQueue<>(MAX_POOLED_SCRATCH);
+
+    /** How long after a server lookup starts builds still wait for it, rather than leave out the server block. */
+    private static final long SERVER_WAIT_MILLIS = 100;
+
+    /** How long after a failed server lookup the next build tries again. */
+    private static final long SERVER_RETRY_MILLIS = 60000;
+
+    private static volatile ServerLookup serverLookup;
+    private static volatile InetAddress localHost;
 
     public NotifyBuilder(String accessToken, String environment)
+    {
+        this(accessToken, environment, null);
+    }
+
+    /**
+     * @param frameEnricher adds jar, version and in-app flag to stack frames; null leaves frames as they are
+     */
+    public NotifyBuilder(String accessToken, String environment, FrameEnricher frameEnricher)
     {
         this.accessToken = accessToken;
         this.environment = environment;
-        this.notifierData = getNotifierData();
-        this.serverData = getServerData();
+        this.frameEnricher = frameEnricher;
+    }
+
+    /**
+     * Starts looking up the local host name and address for the server block of payloads, unless a lookup is running,
+     * has succeeded, or failed less than {@link #SERVER_RETRY_MILLIS} ago. The lookup can block on DNS, so it runs on
+     * its own daemon thread; builds wait for it for at most {@link #SERVER_WAIT_MILLIS} after it started.
+     */
+    static ServerLookup resolveServerInBackground()
+    {
+        ServerLookup current = serverLookup;
+        if (current != null && !current.canRetry(System.nanoTime()))
+        {
+            return current;
+        }
+        synchronized (NotifyBuilder.class)
+        {
+            current = serverLookup;
+            if (current != null && !current.canRetry(System.nanoTime()))
+            {
+                return current;
+            }
+            final ServerLookup lookup = new ServerLookup();
+            serverLookup = lookup;
+            Thread thread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    lookup.finish(resolveServer());
+                }
+            }, "rollbar-server-lookup");
+            thread.setDaemon(true);
+            thread.start();
+            return lookup;
+        }
+    }
+
+    /**
+     * Looks up the local host on the calling thread.
+     *
+     * @return whether the lookup succeeded
+     */
+    static boolean resolveServer()
+    {
+        try
+        {
+            localHost = InetAddress.getLocalHost();
+            return true;
+        } catch (UnknownHostException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Forgets the local host and any lookup of it, so the next build looks it up again.
+     */
+    static void clearServer()
+    {
+        synchronized (NotifyBuilder.class)
+        {
+            serverLookup = null;
+            localHost = null;
+        }
+    }
+
+    /**
+     * Whether a context key feeds a dedicated item field rather than only custom data.
+     */
+    static boolean isReservedKey(String key)
+    {
+        return key.equals(PERSON_ID_KEY) || key.equals(PERSON_USERNAME_KEY) || key.equals(PERSON_EMAIL_KEY)
+                || key.equals(UUID_KEY) || key.equals("platform") || key.equals("framework");
     }
 
     private String getValue(String key, Map<String, String> context, String defaultValue)
@@ -47,7 +165,35 @@ public class NotifyBuilder {
         return value.toString();
     }
 
+    /**
+     * Builds an item on the logging thread: frames are only enriched from what is already cached.
+     */
     public JsonObject build(String level, String message, Throwable throwable, Map<String, String> context)
+    {
+        JsonArray traces = throwable == null ? null : createTraceChain(throwable);
+        return build(level, message, traces, context, System.currentTimeMillis());
+    }
+
+    /**
+     * Builds a captured item off the logging thread, looking up frame classes not yet cached.
+     */
+    public JsonObject build(CapturedEvent event)
+    {
+        return build(event, true);
+    }
+
+    /**
+     * @param lookupFrames whether frame classes not yet cached may be looked up on this thread; when false, as on the
+     *                     logging thread, they are looked up in the background and sent without their jar this time
+     */
+    public JsonObject build(CapturedEvent event, boolean lookupFrames)
+    {
+        ThrowableSnapshot throwable = event.getThrowable();
+        JsonArray traces = throwable == null ? null : createTraceChain(throwable, lookupFrames);
+        return build(event.getLevel(), event.getMessage(), traces, event.getContext(), event.getTimestamp());
+    }
+
+    private JsonObject build(String level, String message, JsonArray traces, Map<String, String> context, long timestamp)
     {
 
         JsonObject payload = new JsonObject();
@@ -64,8 +210,8 @@ public class NotifyBuilder {
         data.addProperty("platform", getValue("platform", context, "java"));
         data.addProperty("framework", getValue("framework", context, "java"));
         data.addProperty("language", "java");
-        data.addProperty("timestamp", System.currentTimeMillis() / 1000);
-        data.add("body", getBody(message, throwable));
+        data.addProperty("timestamp", timestamp / 1000);
+        data.add("body", getBody(message, traces));
         data.add("request", buildRequest(context));
 
         int length = 99;
@@ -75,6 +221,12 @@ public class NotifyBuilder {
         }
         data.addProperty("title", message.substring(0, length));
 
+        String fingerprint = fingerprint(message, traces);
+        if (fingerprint != null)
+        {
+            data.addProperty("fingerprint", fingerprint);
+        }
+
         // Add person if available
         JsonObject person = buildPerson(context);
         if (person != null)
@@ -90,23 +242,65 @@ public class NotifyBuilder {
 
         // Custom data and log message if there's a throwable
         JsonObject customData = buildCustom(context);
-        if (throwable != null && message != null)
+        if (traces != null && message != null)
         {
             customData.addProperty("log", message);
         }
 
         data.add("custom", customData);
         data.add("client", buildClient(context));
-        if (serverData != null)
+        JsonObject server = buildServer();
+        if (server != null)
         {
-            data.add("server", serverData);
+            data.add("server", server);
         }
-        data.add("notifier", notifierData);
+        data.add("notifier", buildNotifier());
         payload.add("data", data);
 
         return payload;
     }
 
+    /**
+     * Serializes a payload to UTF-8 JSON, byte for byte the same as {@code payload.toString()}, encoding straight into a
+     * pooled byte buffer so the only copy made is the returned array.
+     */
+    public byte[] toBytes(JsonObject payload)
+    {
+        Scratch scratch = acquireScratch();
+        try
+        {
+            JsonWriter writer = new JsonWriter(scratch.out);
+            GSON.toJson(payload, writer);
+            writer.flush();
+            byte[] bytes = scratch.bytes.toByteArray();
+            releaseScratch(scratch);
+            return bytes;
+        } catch (IOException e)
+        {
+            // The encoder may hold partial output, so the scratch is not reused
+            throw new JsonIOException(e);
+        }
+    }
+
+    /**
+     * Scratch buffers are pooled per builder rather than per thread, so application threads building items
+     * synchronously do not each keep one, and nothing outlives the appender.
+     */
+    private Scratch acquireScratch()
+    {
+        Scratch scratch = scratches.poll();
+        return scratch == null ? new Scratch() : scratch;
+    }
+
+    private void releaseScratch(Scratch scratch)
+    {
+        if (scratch.bytes.capacity() <= MAX_SCRATCH_BYTES)
+        {
+            scratch.bytes.reset();
+            scratches.offer(scratch);
+        }
+    }
+
     private JsonObject buildClient(Map<String, String> ctx)
     {
         JsonObject client = new JsonObject();
@@ -202,25 +396,16 @@ public class NotifyBuilder {
         return request;
     }
 
-    private JsonObject getBody(String message, Throwable original)
+    private JsonObject getBody(String message, JsonArray traces)
     {
         JsonObject body = new JsonObject();
 
-        Throwable throwable = original;
-
-        JsonArray traces = new JsonArray();
-        if (throwable != null)
+        if (traces != null)
         {
-            do
-            {
-                traces.add(createTrace(throwable));
-                throwable = throwable.getCause();
-            } while (throwable != null);
-
             body.add("trace_chain", traces);
         }
 
-        if (original == null && message != null)
+        if (traces == null && message != null)
         {
             JsonObject messageBody = new JsonObject();
             messageBody.addProperty("body", message);
@@ -230,40 +415,148 @@ public class NotifyBuilder {
         return body;
     }
 
-    private JsonObject getNotifierData()
+    private JsonArray createTraceChain(Throwable throwable)
     {
-        JsonObject notifier = new JsonObject();
-        notifier.addProperty("name", "rollbar-java");
-        notifier.addProperty("version", NOTIFIER_VERSION);
-        return notifier;
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        JsonArray traces = new JsonArray();
+        do
+        {
+            traces.add(createTrace(throwable.getClass().getName(), throwable.getMessage(), throwable.getStackTrace(),
+                                   loader, false));
+            throwable = throwable.getCause();
+        } while (throwable != null);
+        return traces;
     }
 
-    private JsonObject getServerData()
+    private JsonArray createTraceChain(ThrowableSnapshot throwable, boolean lookupFrames)
     {
-        try
+        JsonArray traces = new JsonArray();
+        for (int i = 0; i < throwable.size(); i++)
         {
-            InetAddress localhost = InetAddress.getLocalHost();
+            traces.add(createTrace(throwable.getClassName(i), throwable.getMessage(i), throwable.getStackTrace(i),
+                                   throwable.getClassLoader(), lookupFrames));
+        }
+        return traces;
+    }
 
-            String host = localhost.getHostName();
-            String ip = localhost.getHostAddress();
+    /**
+     * Groups items by the MD5 of their message, or for throwables of their exception classes and frame methods, so
+     * that line number and message changes don't split a group.
+     */
+    private String fingerprint(String message, JsonArray traces)
+    {
+        Scratch scratch = acquireScratch();
+        try
+        {
+            return fingerprint(scratch.md5, message, traces);
+        } finally
+        {
+            releaseScratch(scratch);
+        }
+    }
 
-            JsonObject notifier = new JsonObject();
-            notifier.addProperty("host", host);
-            notifier.addProperty("ip", ip);
-            return notifier;
-        } catch (UnknownHostException e)
+    private static String fingerprint(MessageDigest md5, String message, JsonArray traces)
+    {
+        if (md5 == null)
         {
             return null;
         }
+        md5.reset();
+
+        if (traces == null)
+        {
+            if (message == null)
+            {
+                return null;
+            }
+            md5.update(message.getBytes(StandardCharsets.UTF_8));
+        } else
+        {
+            for (JsonElement trace : traces)
+            {
+                JsonObject traceObject = trace.getAsJsonObject();
+                update(md5, traceObject.getAsJsonObject("exception").get("class").getAsString());
+                for (JsonElement frame : traceObject.getAsJsonArray("frames"))
+                {
+                    JsonObject frameObject = frame.getAsJsonObject();
+                    update(md5, frameObject.get("class_name").getAsString());
+                    update(md5, frameObject.get("method").getAsString());
+                }
+            }
+        }
+
+        byte[] digest = md5.digest();
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++)
+        {
+            hex[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[digest[i] & 0xf];
+        }
+        return new String(hex);
     }
 
-    private JsonObject createTrace(Throwable throwable)
+    private static void update(MessageDigest md5, String value)
+    {
+        md5.update(value.getBytes(StandardCharsets.UTF_8));
+        md5.update((byte) '\n');
+    }
+
+    /**
+     * Cheap hash of the same input as the fingerprint: items with equal fingerprints always have equal hashes.
+     */
+    static int fingerprintHash(String message, Throwable throwable)
+    {
+        if (throwable == null)
+        {
+            return message == null ? 0 : message.hashCode();
+        }
+        int hash = 1;
+        for (Throwable t = throwable; t != null; t = t.getCause())
+        {
+            hash = 31 * hash + t.getClass().getName().hashCode();
+            for (StackTraceElement element : t.getStackTrace())
+            {
+                hash = 31 * hash + element.getClassName().hashCode();
+                hash = 31 * hash + element.getMethodName().hashCode();
+            }
+        }
+        return hash;
+    }
+
+    private JsonObject buildNotifier()
+    {
+        JsonObject notifier = new JsonObject();
+        notifier.addProperty("name", "rollbar-java");
+        notifier.addProperty("version", NOTIFIER_VERSION);
+        return notifier;
+    }
+
+    private JsonObject buildServer()
+    {
+        // getLocalHost() already resolved the name, so neither call does a lookup here
+        InetAddress host = localHost;
+        if (host == null)
+        {
+            resolveServerInBackground().await();
+            host = localHost;
+            if (host == null)
+            {
+                return null;
+            }
+        }
+        JsonObject server = new JsonObject();
+        server.addProperty("host", host.getHostName());
+        server.addProperty("ip", host.getHostAddress());
+        return server;
+    }
+
+    private JsonObject createTrace(String className, String message, StackTraceElement[] elements, ClassLoader loader,
+                                   boolean lookupFrames)
     {
         JsonObject trace = new JsonObject();
 
         JsonArray frames = new JsonArray();
 
-        StackTraceElement[] elements = throwable.getStackTrace();
         for (int i = elements.length - 1; i >= 0; --i)
         {
             StackTraceElement element = elements[i];
@@ -279,12 +572,17 @@ public class NotifyBuilder {
                 frame.addProperty("lineno", element.getLineNumber());
             }
 
+            if (frameEnricher != null)
+            {
+                enrich(frame, element.getClassName(), loader, lookupFrames);
+            }
+
             frames.add(frame);
         }
 
         JsonObject exceptionData = new JsonObject();
-        exceptionData.addProperty("class", throwable.getClass().getName());
-        exceptionData.addProperty("message", throwable.getMessage());
+        exceptionData.addProperty("class", className);
+        exceptionData.addProperty("message", message);
 
         trace.add("frames", frames);
         trace.add("exception", exceptionData);
@@ -292,4 +590,101 @@ public class NotifyBuilder {
         return trace;
     }
 
+    private void enrich(JsonObject frame, String className, ClassLoader loader, boolean lookupFrames)
+    {
+        FrameEnricher.ClassInfo info = lookupFrames ? frameEnricher.lookup(className, loader)
+                                                    : frameEnricher.lookupCached(className, loader);
+        if (info != null && info.getJar() != null)
+        {
+            frame.addProperty("jar", info.getJar());
+        }
+        if (info != null && info.getVersion() != null)
+        {
+            frame.addProperty("jar_version", info.getVersion());
+        }
+        frame.addProperty("in_app", frameEnricher.isInApp(className));
+    }
+
+    private static final class Scratch
+    {
+
+        final MessageDigest md5;
+        final ScratchBytes bytes = new ScratchBytes();
+        final Writer out = new OutputStreamWriter(bytes, StandardCharsets.UTF_8);
+
+        Scratch()
+        {
+            MessageDigest md5;
+            try
+            {
+                md5 = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e)
+            {
+                md5 = null;
+            }
+            this.md5 = md5;
+        }
+    }
+
+    private static final class ScratchBytes extends ByteArrayOutputStream
+    {
+
+        ScratchBytes()
+        {
+            super(4096);
+        }
+
+        int capacity()
+        {
+            return buf.length;
+        }
+    }
+
+    /**
+     * One background lookup of the local host.
+     */
+    static final class ServerLookup
+    {
+
+        private final long startedAt = System.nanoTime();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile long failedAt;
+        private volatile boolean failed;
+
+        void finish(boolean succeeded)
+        {
+            if (!succeeded)
+            {
+                failedAt = System.nanoTime();
+                failed = true;
+            }
+            done.countDown();
+        }
+
+        boolean canRetry(long now)
+        {
+            return failed && now - failedAt >= TimeUnit.MILLISECONDS.toNanos(SERVER_RETRY_MILLIS);
+        }
+
+        /**
+         * Waits for the lookup to finish, but never past {@link #SERVER_WAIT_MILLIS} after it started, so a slow DNS
+         * server delays only the first builds.
+         */
+        void await()
+        {
+            long remaining = startedAt + TimeUnit.MILLISECONDS.toNanos(SERVER_WAIT_MILLIS) - System.nanoTime();
+            if (remaining <= 0)
+            {
+                return;
+            }
+            try
+            {
+                done.await(remaining, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
 }
@@ -0,0 +1,182 @@
+package com.tapstream.rollbar;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size arena of direct memory holding serialized payloads while they wait to be sent. The arena is cut into
+ * equal slots tracked by a bitmap; a payload takes as many slots as it needs, allocated with compare-and-set so writers
+ * never lock. When no slots are left the write fails and the caller drops the item, so the backlog can never grow
+ * beyond the configured capacity or add to the Java heap beyond a small handle per item.
+ */
+public class OffHeapBuffer
+{
+
+    public static final int DEFAULT_SLOT_SIZE = 1024;
+
+    private final ByteBuffer arena;
+    private final int slotSize;
+    private final int slotCount;
+    private final AtomicLongArray slotBits;
+    private final AtomicInteger nextWord = new AtomicInteger();
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public OffHeapBuffer(long capacity, int slotSize)
+    {
+        if (capacity < slotSize || capacity > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("Capacity must be between one slot and " + Integer.MAX_VALUE
+                                               + " bytes: " + capacity);
+        }
+        this.slotSize = slotSize;
+        this.slotCount = (int) (capacity / slotSize);
+        this.arena = ByteBuffer.allocateDirect(slotCount * slotSize);
+        this.slotBits = new AtomicLongArray((slotCount + 63) / 64);
+
+        // Mark the bits past the last slot as taken so they are never handed out
+        int tail = slotCount % 64;
+        if (tail != 0)
+        {
+            slotBits.set(slotBits.length() - 1, -1L << tail);
+        }
+    }
+
+    /**
+     * Copies {@code data} into the arena, or returns null when there is not enough free space.
+     */
+    public Slice write(byte[] data)
+    {
+        int count = Math.max(1, (data.length + slotSize - 1) / slotSize);
+        if (count > slotCount)
+        {
+            rejected.incrementAndGet();
+            return null;
+        }
+
+        int[] slots = new int[count];
+        for (int i = 0; i < count; i++)
+        {
+            int slot = allocateSlot();
+            if (slot < 0)
+            {
+                for (int j = 0; j < i; j++)
+                {
+                    freeSlot(slots[j]);
+                }
+                rejected.incrementAndGet();
+                return null;
+            }
+            slots[i] = slot;
+        }
+
+        ByteBuffer view = arena.duplicate();
+        for (int i = 0; i < count; i++)
+        {
+            int offset = i * slotSize;
+            view.clear();
+            view.position(slots[i] * slotSize);
+            view.put(data, offset, Math.min(slotSize, data.length - offset));
+        }
+        usedBytes.addAndGet((long) count * slotSize);
+        return new Slice(slots, data.length);
+    }
+
+    /**
+     * Copies a payload back onto the heap and frees its slots. Each slice may be read once.
+     */
+    public byte[] read(Slice slice)
+    {
+        byte[] data = new byte[slice.length];
+        ByteBuffer view = arena.duplicate();
+        for (int i = 0; i < slice.slots.length; i++)
+        {
+            int offset = i * slotSize;
+            view.clear();
+            view.position(slice.slots[i] * slotSize);
+            view.get(data, offset, Math.min(slotSize, data.length - offset));
+        }
+        release(slice);
+        return data;
+    }
+
+    public void release(Slice slice)
+    {
+        for (int slot : slice.slots)
+        {
+            freeSlot(slot);
+        }
+        usedBytes.addAndGet(-(long) slice.slots.length * slotSize);
+    }
+
+    public long getCapacity()
+    {
+        return (long) slotCount * slotSize;
+    }
+
+    public long getUsedBytes()
+    {
+        return usedBytes.get();
+    }
+
+    public long getRejected()
+    {
+        return rejected.get();
+    }
+
+    private int allocateSlot()
+    {
+        int words = slotBits.length();
+        int start = (nextWord.getAndIncrement() & Integer.MAX_VALUE) % words;
+        for (int n = 0; n < words; n++)
+        {
+            int word = (start + n) % words;
+            long bits = slotBits.get(word);
+            while (bits != -1L)
+            {
+                int bit = Long.numberOfTrailingZeros(~bits);
+                if (slotBits.compareAndSet(word, bits, bits | (1L << bit)))
+                {
+                    return word * 64 + bit;
+                }
+                bits = slotBits.get(word);
+            }
+        }
+        return -1;
+    }
+
+    private void freeSlot(int slot)
+    {
+        int word = slot / 64;
+        long mask = 1L << (slot % 64);
+        long bits;
+        do
+        {
+            bits = slotBits.get(word);
+        } while (!slotBits.compareAndSet(word, bits, bits & ~mask));
+    }
+
+    /**
+     * Handle to a payload stored in the arena.
+     */
+    public static final class Slice
+    {
+
+        private final int[] slots;
+        private final int length;
+
+        private Slice(int[] slots, int length)
+        {
+            this.slots = slots;
+            this.length = length;
+        }
+
+        public int getLength()
+        {
+            return length;
+        }
+    }
+
+}
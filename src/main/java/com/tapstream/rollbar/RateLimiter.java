@@ -0,0 +1,78 @@
+package com.tapstream.rollbar;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket allowing {@code permitsPerSecond} items per second, with bursts of up to one second's worth.
+ */
+public class RateLimiter
+{
+
+    private final double permitsPerSecond;
+    private final double maxPermits;
+    private double permits;
+    private long lastRefill;
+
+    public RateLimiter(double permitsPerSecond)
+    {
+        if (permitsPerSecond <= 0)
+        {
+            throw new IllegalArgumentException("permitsPerSecond must be positive");
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        this.maxPermits = Math.max(1, permitsPerSecond);
+        this.permits = maxPermits;
+        this.lastRefill = System.nanoTime();
+    }
+
+    public synchronized boolean tryAcquire()
+    {
+        refill();
+        if (permits >= 1)
+        {
+            permits -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    public void acquire() throws InterruptedException
+    {
+        tryAcquire(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Waits up to {@code timeout} for a permit, returning false without taking one if none became available in time.
+     */
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true)
+        {
+            long waitNanos;
+            synchronized (this)
+            {
+                refill();
+                if (permits >= 1)
+                {
+                    permits -= 1;
+                    return true;
+                }
+                waitNanos = (long) ((1 - permits) / permitsPerSecond * 1e9);
+            }
+            if (deadline - System.nanoTime() < waitNanos)
+            {
+                return false;
+            }
+            Thread.sleep(Math.max(1, waitNanos / 1000000));
+        }
+    }
+
+    private void refill()
+    {
+        long now = System.nanoTime();
+        permits = Math.min(maxPermits, permits + (now - lastRefill) / 1e9 * permitsPerSecond);
+        lastRefill = now;
+    }
+
+}
@@ -1,25 +1,28 @@
 package com.tapstream.rollbar;
 
-import com.google.gson.JsonObject;
-import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.core.Filter;
 import org.apache.logging.log4j.core.Layout;
 import org.apache.logging.log4j.core.LogEvent;
 import org.apache.logging.log4j.core.appender.AbstractAppender;
 import org.apache.logging.log4j.core.config.plugins.Plugin;
-import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
 import org.apache.logging.log4j.core.config.plugins.PluginElement;
-import org.apache.logging.log4j.core.config.plugins.PluginFactory;
-import org.apache.logging.log4j.core.impl.ThrowableProxy;
 import org.apache.logging.log4j.core.layout.PatternLayout;
 import org.apache.logging.log4j.message.Message;
 import org.apache.logging.log4j.message.StructuredDataMessage;
 
-import java.io.IOException;
 import java.io.Serializable;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Log4j2 Appender for Rollbar
@@ -29,38 +32,264 @@ public class RollbarAppender extends AbstractAppender {
 
     private static final String ENV_VAR_APIKEY = "ROLLBAR_LOGBACK_API_KEY";
 
-    private NotifyBuilder payloadBuilder;
+    private static final long STOP_TIMEOUT_MILLIS = 5000;
 
     private URL url;
+    private List<URL> urls = new ArrayList<>();
     private String apiKey;
     private String environment;
+    private int queueSize;
+    private double rateLimit;
+    private int batchSize;
+    private long offHeapBytes;
+    private long sheddingBudgetMicros;
+    private int senderThreads;
+    private Level summaryLevel;
+    private long summaryIntervalSeconds;
+    private boolean enrichFrames;
+    private String[] appPackages;
+    private boolean warmUp;
+    private FrameEnricher frameEnricher;
+    private int endpointFailureThreshold;
+    private long endpointRetrySeconds;
     private IHttpRequester httpRequester = new HttpRequester();
+    private final Map<String, FailoverHttpRequester> failovers = new HashMap<>();
 
-    private RollbarAppender(String name, Layout<? extends Serializable> layout, Filter filter, String url, String apiKey, String environment)
+    private final RollbarRoute[] routes;
+    private final Map<RollbarRoute, DeliveryPipeline> routePipelines = new LinkedHashMap<>();
+    private DeliveryPipeline defaultPipeline;
+    private Thread warmupThread;
+
+    private RollbarAppender(Builder builder)
     {
-        super(name, filter, layout);
-        setUrl(url);
-        this.apiKey = apiKey;
-        this.environment = environment;
+        super(builder.name, builder.filter, builder.layout);
+        setUrl(builder.url);
+        this.apiKey = builder.apiKey;
+        this.environment = builder.environment;
+        this.queueSize = builder.queueSize;
+        this.rateLimit = builder.rateLimit;
+        this.batchSize = builder.batchSize;
+        this.offHeapBytes = builder.offHeapBytes;
+        this.sheddingBudgetMicros = builder.sheddingBudgetMicros;
+        this.senderThreads = builder.senderThreads;
+        this.summaryLevel = builder.summaryLevel;
+        this.summaryIntervalSeconds = builder.summaryIntervalSeconds;
+        this.enrichFrames = builder.enrichFrames;
+        this.appPackages = FrameEnricher.parsePackages(builder.appPackages);
+        this.warmUp = builder.warmUp;
+        this.endpointFailureThreshold = builder.endpointFailureThreshold;
+        this.endpointRetrySeconds = builder.endpointRetrySeconds;
+        this.routes = builder.routes == null ? new RollbarRoute[0] : builder.routes;
+    }
+
+    @PluginBuilderFactory
+    public static Builder newBuilder()
+    {
+        return new Builder();
     }
 
-    @PluginFactory
-    public static RollbarAppender createAppender(
-                    @PluginAttribute("name") String name,
-                    @PluginElement("Layout") Layout<? extends Serializable> layout,
-                    @PluginElement("Filters") Filter filter,
-                    @PluginAttribute("url") String url,
-                    @PluginAttribute("apikey") String apiKey,
-                    @PluginAttribute("environment") String env
-                                                )
+    public static RollbarAppender createAppender(String name, Layout<? extends Serializable> layout, Filter filter,
+                                                 String url, String apiKey, String env)
     {
+        return newBuilder().setName(name).setLayout(layout).setFilter(filter).setUrl(url).setApiKey(apiKey)
+                           .setEnvironment(env).build();
+    }
+
+    /**
+     * Builds the appender from its configuration attributes; see the README for what each one does.
+     */
+    public static class Builder implements org.apache.logging.log4j.core.util.Builder<RollbarAppender>
+    {
+
+        @PluginBuilderAttribute
+        private String name;
+
+        @PluginElement("Layout")
+        private Layout<? extends Serializable> layout;
+
+        @PluginElement("Filters")
+        private Filter filter;
+
+        @PluginBuilderAttribute
+        private String url;
+
+        @PluginBuilderAttribute(value = "apikey", sensitive = true)
+        private String apiKey;
+
+        @PluginBuilderAttribute
+        private String environment;
+
+        @PluginBuilderAttribute
+        private int queueSize;
+
+        @PluginBuilderAttribute
+        private double rateLimit;
+
+        @PluginBuilderAttribute
+        private int batchSize = 1;
+
+        @PluginBuilderAttribute
+        private long offHeapBytes;
+
+        @PluginBuilderAttribute
+        private long sheddingBudgetMicros;
+
+        @PluginBuilderAttribute
+        private int senderThreads = 1;
+
+        @PluginBuilderAttribute
+        private Level summaryLevel;
+
+        @PluginBuilderAttribute
+        private long summaryIntervalSeconds = 60;
+
+        @PluginBuilderAttribute
+        private boolean enrichFrames;
 
-        if (name == null)
+        @PluginBuilderAttribute
+        private String appPackages;
+
+        @PluginBuilderAttribute
+        private boolean warmUp;
+
+        @PluginBuilderAttribute
+        private int endpointFailureThreshold = 3;
+
+        @PluginBuilderAttribute
+        private long endpointRetrySeconds = 30;
+
+        @PluginElement("Routes")
+        private RollbarRoute[] routes;
+
+        public Builder setName(String name)
         {
-            LOGGER.error("No name provided for RollbarAppender");
-            return null;
-        } else
+            this.name = name;
+            return this;
+        }
+
+        public Builder setLayout(Layout<? extends Serializable> layout)
+        {
+            this.layout = layout;
+            return this;
+        }
+
+        public Builder setFilter(Filter filter)
         {
+            this.filter = filter;
+            return this;
+        }
+
+        public Builder setUrl(String url)
+        {
+            this.url = url;
+            return this;
+        }
+
+        public Builder setApiKey(String apiKey)
+        {
+            this.apiKey = apiKey;
+            return this;
+        }
+
+        public Builder setEnvironment(String environment)
+        {
+            this.environment = environment;
+            return this;
+        }
+
+        public Builder setQueueSize(int queueSize)
+        {
+            this.queueSize = queueSize;
+            return this;
+        }
+
+        public Builder setRateLimit(double rateLimit)
+        {
+            this.rateLimit = rateLimit;
+            return this;
+        }
+
+        public Builder setBatchSize(int batchSize)
+        {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        public Builder setOffHeapBytes(long offHeapBytes)
+        {
+            this.offHeapBytes = offHeapBytes;
+            return this;
+        }
+
+        public Builder setSheddingBudgetMicros(long sheddingBudgetMicros)
+        {
+            this.sheddingBudgetMicros = sheddingBudgetMicros;
+            return this;
+        }
+
+        public Builder setSenderThreads(int senderThreads)
+        {
+            this.senderThreads = senderThreads;
+            return this;
+        }
+
+        public Builder setSummaryLevel(Level summaryLevel)
+        {
+            this.summaryLevel = summaryLevel;
+            return this;
+        }
+
+        public Builder setSummaryIntervalSeconds(long summaryIntervalSeconds)
+        {
+            this.summaryIntervalSeconds = summaryIntervalSeconds;
+            return this;
+        }
+
+        public Builder setEnrichFrames(boolean enrichFrames)
+        {
+            this.enrichFrames = enrichFrames;
+            return this;
+        }
+
+        public Builder setAppPackages(String appPackages)
+        {
+            this.appPackages = appPackages;
+            return this;
+        }
+
+        public Builder setWarmUp(boolean warmUp)
+        {
+            this.warmUp = warmUp;
+            return this;
+        }
+
+        public Builder setEndpointFailureThreshold(int endpointFailureThreshold)
+        {
+            this.endpointFailureThreshold = endpointFailureThreshold;
+            return this;
+        }
+
+        public Builder setEndpointRetrySeconds(long endpointRetrySeconds)
+        {
+            this.endpointRetrySeconds = endpointRetrySeconds;
+            return this;
+        }
+
+        public Builder setRoutes(RollbarRoute... routes)
+        {
+            this.routes = routes;
+            return this;
+        }
+
+        @Override
+        public RollbarAppender build()
+        {
+            if (name == null)
+            {
+                LOGGER.error("No name provided for RollbarAppender");
+                return null;
+            }
+
             if (layout == null)
             {
                 layout = PatternLayout.createDefaultLayout();
@@ -76,29 +305,135 @@ public class RollbarAppender extends AbstractAppender {
                 LOGGER.error("Key is required in order to use Rollbar. Please get your key here https://rollbar.com");
             }
 
-            if (env == null || env.trim().isEmpty())
+            if (environment == null || environment.trim().isEmpty())
             {
                 LOGGER.error("Please provide the environment is required.");
             }
 
-            return new RollbarAppender(name, layout, filter, url, apiKey, env);
+            if (offHeapBytes != 0 && (offHeapBytes < OffHeapBuffer.DEFAULT_SLOT_SIZE || offHeapBytes > Integer.MAX_VALUE))
+            {
+                LOGGER.error("offHeapBytes must be between " + OffHeapBuffer.DEFAULT_SLOT_SIZE + " and "
+                             + Integer.MAX_VALUE + ", got " + offHeapBytes + "; queued items stay on the heap");
+                offHeapBytes = 0;
+            }
+
+            if (endpointFailureThreshold < 1)
+            {
+                LOGGER.error("endpointFailureThreshold must be at least 1, got " + endpointFailureThreshold);
+                endpointFailureThreshold = 1;
+            }
+
+            return new RollbarAppender(this);
         }
     }
 
     public void setHttpRequester(IHttpRequester httpRequester)
     {
         this.httpRequester = httpRequester;
+        updateTransport();
     }
 
+    /**
+     * Sets the Rollbar endpoint. A comma separated list spreads items over several endpoints, preferring them in the
+     * order given and failing over between them.
+     */
     public void setUrl(String url)
     {
+        List<URL> urls = parseUrls(url);
+        if (urls == null)
+        {
+            return;
+        }
+        this.urls = urls;
+        this.url = urls.isEmpty() ? null : urls.get(0);
+        updateTransport();
+    }
+
+    static List<URL> parseUrls(String url)
+    {
+        List<URL> urls = new ArrayList<>();
         try
         {
-            this.url = new URL(url);
+            if (url == null)
+            {
+                throw new MalformedURLException("No url given");
+            }
+            for (String part : url.split(","))
+            {
+                if (!part.trim().isEmpty())
+                {
+                    urls.add(new URL(part.trim()));
+                }
+            }
         } catch (MalformedURLException e)
         {
             LOGGER.error("Error setting url", e);
+            return null;
+        }
+        return urls;
+    }
+
+    /**
+     * Points every pipeline at its endpoints. Pipelines sending to the same endpoints share one
+     * {@link FailoverHttpRequester}, which survives url and requester changes so endpoint health is kept.
+     */
+    private synchronized void updateTransport()
+    {
+        Map<String, FailoverHttpRequester> inUse = new HashMap<>();
+        if (defaultPipeline != null)
+        {
+            setTransport(defaultPipeline, urls, inUse);
+        }
+        for (Map.Entry<RollbarRoute, DeliveryPipeline> entry : routePipelines.entrySet())
+        {
+            List<URL> routeUrls = entry.getKey().getUrl() == null ? null : parseUrls(entry.getKey().getUrl());
+            setTransport(entry.getValue(), routeUrls == null ? urls : routeUrls, inUse);
+        }
+        failovers.keySet().retainAll(inUse.keySet());
+    }
+
+    private void setTransport(DeliveryPipeline pipeline, List<URL> endpoints, Map<String, FailoverHttpRequester> inUse)
+    {
+        if (endpoints.size() <= 1)
+        {
+            pipeline.setTransport(endpoints.isEmpty() ? null : endpoints.get(0), httpRequester);
+            return;
+        }
+        StringBuilder key = new StringBuilder();
+        for (URL endpoint : endpoints)
+        {
+            key.append(endpoint.toExternalForm()).append(' ');
+        }
+        FailoverHttpRequester failover = failovers.get(key.toString());
+        if (failover == null)
+        {
+            failover = new FailoverHttpRequester(endpoints, httpRequester);
+            failovers.put(key.toString(), failover);
+        } else
+        {
+            failover.setDelegate(httpRequester);
         }
+        failover.setFailureThreshold(endpointFailureThreshold);
+        failover.setRetryAfterMillis(endpointRetrySeconds * 1000);
+        inUse.put(key.toString(), failover);
+        pipeline.setTransport(endpoints.get(0), failover);
+    }
+
+    public DeliveryPipeline getDefaultPipeline()
+    {
+        return defaultPipeline;
+    }
+
+    public DeliveryPipeline getPipeline(String routeName)
+    {
+        for (Map.Entry<RollbarRoute, DeliveryPipeline> entry : routePipelines.entrySet())
+        {
+            if (entry.getKey().getName().equals(routeName))
+            {
+                return entry.getValue();
+            }
+        }
+        return null;
     }
 
     public void setApiKey(String apiKey)
@@ -114,30 +449,58 @@ public class RollbarAppender extends AbstractAppender {
     @Override
     public void append(LogEvent logEvent)
     {
-        String levelName = logEvent.getLevel().toString().toLowerCase();
+        long start = System.nanoTime();
         Message message = logEvent.getMessage();
-        Map<String, String> propertyMap = ThreadContext.getContext();
+        Map<String, String> eventContext = logEvent.getContextMap();
+        boolean structured = message instanceof StructuredDataMessage;
 
-        Throwable throwable = null;
-        ThrowableProxy throwableProxy = logEvent.getThrownProxy();
-        if (throwableProxy != null)
+        // Structured data can be matched by routes, so those messages need the merged context before routing
+        Map<String, String> propertyMap = new HashMap<>();
+        if (structured)
         {
-            throwable = throwableProxy.getThrowable();
-        }
-        String messageBody;
-        if(message instanceof StructuredDataMessage){
-            messageBody = message.getFormat();
+            LoadShedder.copy(eventContext, propertyMap, LoadShedder.FULL);
             propertyMap.putAll(((StructuredDataMessage) message).getData());
-        } else {
-            messageBody = message.getFormattedMessage();
         }
-        final JsonObject payload = payloadBuilder.build(levelName, messageBody, throwable, propertyMap);
-        final HttpRequest request = new HttpRequest(url, "POST");
-        request.setHeader("Content-Type", "application/json");
-        request.setHeader("Accept", "application/json");
-        request.setBody(payload.toString());
+        DeliveryPipeline pipeline = pipelineFor(logEvent, structured ? propertyMap : eventContext);
+
+        // Shedding is decided before the context is copied, the message formatted or the throwable resolved
+        boolean summarized = summaryLevel != null && logEvent.getLevel().isLessSpecificThan(summaryLevel);
+        int sheddingLevel = summarized ? LoadShedder.FULL : pipeline.admit();
+        if (sheddingLevel == LoadShedder.SHED)
+        {
+            return;
+        }
+        if (structured)
+        {
+            propertyMap = LoadShedder.reduce(propertyMap, sheddingLevel);
+        } else
+        {
+            LoadShedder.copy(eventContext, propertyMap, sheddingLevel);
+        }
 
-        sendRequest(request);
+        String levelName = logEvent.getLevel().toString().toLowerCase();
+        String messageBody = structured ? message.getFormat() : message.getFormattedMessage();
+        // The throwable itself, as log4j's ThrowableProxy takes the stack and loads every frame's class when built
+        Throwable throwable = logEvent.getThrown();
+        if (summarized)
+        {
+            pipeline.summarize(levelName, messageBody, throwable, propertyMap);
+        } else
+        {
+            pipeline.submit(levelName, messageBody, throwable, propertyMap, start);
+        }
+    }
+
+    private DeliveryPipeline pipelineFor(LogEvent logEvent, Map<String, String> context)
+    {
+        for (Map.Entry<RollbarRoute, DeliveryPipeline> entry : routePipelines.entrySet())
+        {
+            if (entry.getKey().matches(logEvent, context))
+            {
+                return entry.getValue();
+            }
+        }
+        return defaultPipeline;
     }
 
     @Override
@@ -173,37 +536,95 @@ public class RollbarAppender extends AbstractAppender {
             error = true;
         }
 
-        payloadBuilder = new NotifyBuilder(apiKey, environment);
+        // One enricher for all pipelines, so each class is looked up once
+        frameEnricher = enrichFrames ? new FrameEnricher(appPackages, FrameEnricher.DEFAULT_MAX_CLASSES) : null;
+        List<URL> endpoints = new ArrayList<>(urls);
+        // Compared by their text, as URL.equals resolves host names
+        Set<String> endpointNames = new HashSet<>();
+        for (URL endpoint : urls)
+        {
+            endpointNames.add(endpoint.toExternalForm());
+        }
+        NotifyBuilder defaultBuilder = new NotifyBuilder(apiKey, environment, frameEnricher);
+        defaultPipeline = new DeliveryPipeline(getName(), defaultBuilder, queueSize, rateLimit, batchSize);
+        defaultPipeline.setOffHeapBytes(offHeapBytes);
+        defaultPipeline.setSheddingBudgetMicros(sheddingBudgetMicros);
+        defaultPipeline.setSenderThreads(senderThreads);
+        defaultPipeline.setSummaryIntervalSeconds(summaryLevel == null ? 0 : summaryIntervalSeconds);
+        routePipelines.clear();
+        for (RollbarRoute route : routes)
+        {
+            String routeApiKey = route.getApiKey() == null ? apiKey : route.getApiKey();
+            NotifyBuilder routeBuilder = new NotifyBuilder(routeApiKey, environment, frameEnricher);
+            List<URL> routeUrls = route.getUrl() == null ? null : parseUrls(route.getUrl());
+            if (routeUrls != null)
+            {
+                for (URL routeUrl : routeUrls)
+                {
+                    if (endpointNames.add(routeUrl.toExternalForm()))
+                    {
+                        endpoints.add(routeUrl);
+                    }
+                }
+            }
+            DeliveryPipeline pipeline = new DeliveryPipeline(getName() + "-" + route.getName(), routeBuilder,
+                                                             route.getQueueSize(), route.getRateLimit(), route.getBatchSize());
+            pipeline.setOffHeapBytes(offHeapBytes);
+            pipeline.setSheddingBudgetMicros(sheddingBudgetMicros);
+            pipeline.setSenderThreads(senderThreads);
+            pipeline.setSummaryIntervalSeconds(summaryLevel == null ? 0 : summaryIntervalSeconds);
+            routePipelines.put(route, pipeline);
+        }
+        updateTransport();
 
         if (!error)
         {
+            defaultPipeline.start();
+            for (DeliveryPipeline pipeline : routePipelines.values())
+            {
+                pipeline.start();
+            }
+            if (warmUp)
+            {
+                startWarmup(defaultBuilder, endpoints);
+            }
             super.start();
         }
 
     }
 
-    @Override
-    public void stop()
+    /**
+     * Every pipeline's builder runs the same code, so priming one of them compiles it for all.
+     */
+    private void startWarmup(NotifyBuilder builder, List<URL> endpoints)
     {
-        super.stop();
+        warmupThread = new Thread(new Warmup(builder, endpoints, httpRequester), "rollbar-warmup-" + getName());
+        warmupThread.setDaemon(true);
+        warmupThread.setPriority(Thread.MIN_PRIORITY);
+        warmupThread.start();
     }
 
-    private void sendRequest(HttpRequest request)
+    @Override
+    public void stop()
     {
-        try
+        super.stop();
+        if (warmupThread != null)
         {
-            int statusCode = httpRequester.send(request);
-            if (statusCode >= 200 && statusCode <= 299)
-            {
-                // Everything went OK
-            } else
-            {
-                LOGGER.error("Non-2xx response from Rollbar: " + statusCode);
-            }
-
-        } catch (IOException e)
+            warmupThread.interrupt();
+            warmupThread = null;
+        }
+        if (defaultPipeline != null)
+        {
+            defaultPipeline.stop(STOP_TIMEOUT_MILLIS);
+        }
+        for (DeliveryPipeline pipeline : routePipelines.values())
+        {
+            pipeline.stop(STOP_TIMEOUT_MILLIS);
+        }
+        if (frameEnricher != null)
         {
-            LOGGER.error("Exception sending request to Rollbar", e);
+            frameEnricher.close();
+            frameEnricher = null;
         }
     }
 
@@ -0,0 +1,234 @@
+package com.tapstream.rollbar;
+
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginBuilderFactory;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import java.util.Map;
+
+/**
+ * Sends the events it matches to their own Rollbar project through a separate {@link DeliveryPipeline}. Every
+ * criterion that is set must match: logger name prefix, marker, and context key (optionally with a given value).
+ */
+@Plugin(name = "RollbarRoute", category = "Core", printObject = true)
+public class RollbarRoute
+{
+
+    /** Routes queue by default, so a slow project endpoint never holds up the logging thread. */
+    public static final int DEFAULT_QUEUE_SIZE = 100;
+
+    private final String name;
+    private final String loggerPrefix;
+    private final String marker;
+    private final String contextKey;
+    private final String contextValue;
+    private final String apiKey;
+    private final String url;
+    private final int queueSize;
+    private final double rateLimit;
+    private final int batchSize;
+
+    private RollbarRoute(Builder builder)
+    {
+        this.name = builder.name;
+        this.loggerPrefix = builder.loggerPrefix;
+        this.marker = builder.marker;
+        this.contextKey = builder.contextKey;
+        this.contextValue = builder.contextValue;
+        this.apiKey = builder.apiKey;
+        this.url = builder.url;
+        this.queueSize = builder.queueSize;
+        this.rateLimit = builder.rateLimit;
+        this.batchSize = builder.batchSize;
+    }
+
+    @PluginBuilderFactory
+    public static Builder newBuilder()
+    {
+        return new Builder();
+    }
+
+    public static class Builder implements org.apache.logging.log4j.core.util.Builder<RollbarRoute>
+    {
+
+        @PluginBuilderAttribute
+        private String name;
+
+        @PluginBuilderAttribute
+        private String loggerPrefix;
+
+        @PluginBuilderAttribute
+        private String marker;
+
+        @PluginBuilderAttribute
+        private String contextKey;
+
+        @PluginBuilderAttribute
+        private String contextValue;
+
+        @PluginBuilderAttribute(value = "apikey", sensitive = true)
+        private String apiKey;
+
+        @PluginBuilderAttribute
+        private String url;
+
+        @PluginBuilderAttribute
+        private int queueSize = DEFAULT_QUEUE_SIZE;
+
+        @PluginBuilderAttribute
+        private double rateLimit;
+
+        @PluginBuilderAttribute
+        private int batchSize = 1;
+
+        public Builder setName(String name)
+        {
+            this.name = name;
+            return this;
+        }
+
+        public Builder setLoggerPrefix(String loggerPrefix)
+        {
+            this.loggerPrefix = loggerPrefix;
+            return this;
+        }
+
+        public Builder setMarker(String marker)
+        {
+            this.marker = marker;
+            return this;
+        }
+
+        public Builder setContextKey(String contextKey)
+        {
+            this.contextKey = contextKey;
+            return this;
+        }
+
+        public Builder setContextValue(String contextValue)
+        {
+            this.contextValue = contextValue;
+            return this;
+        }
+
+        public Builder setApiKey(String apiKey)
+        {
+            this.apiKey = apiKey;
+            return this;
+        }
+
+        public Builder setUrl(String url)
+        {
+            this.url = url;
+            return this;
+        }
+
+        public Builder setQueueSize(int queueSize)
+        {
+            this.queueSize = queueSize;
+            return this;
+        }
+
+        public Builder setRateLimit(double rateLimit)
+        {
+            this.rateLimit = rateLimit;
+            return this;
+        }
+
+        public Builder setBatchSize(int batchSize)
+        {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        @Override
+        public RollbarRoute build()
+        {
+            if (name == null)
+            {
+                StatusLogger.getLogger().error("No name provided for RollbarRoute");
+                return null;
+            }
+            if (loggerPrefix == null && marker == null && contextKey == null)
+            {
+                StatusLogger.getLogger().error("RollbarRoute [" + name + "] needs a loggerPrefix, marker or contextKey");
+                return null;
+            }
+            if (queueSize <= 0)
+            {
+                StatusLogger.getLogger().warn("RollbarRoute [" + name + "] has no queue, so its items are sent on the "
+                                              + "logging thread and a slow endpoint blocks the callers");
+            }
+            return new RollbarRoute(this);
+        }
+    }
+
+    public boolean matches(LogEvent event, Map<String, String> context)
+    {
+        if (loggerPrefix != null)
+        {
+            String loggerName = event.getLoggerName();
+            if (loggerName == null || !loggerName.startsWith(loggerPrefix))
+            {
+                return false;
+            }
+        }
+        if (marker != null)
+        {
+            Marker eventMarker = event.getMarker();
+            if (eventMarker == null || !eventMarker.isInstanceOf(marker))
+            {
+                return false;
+            }
+        }
+        if (contextKey != null)
+        {
+            String value = context.get(contextKey);
+            if (value == null || (contextValue != null && !contextValue.equals(value)))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public String getApiKey()
+    {
+        return apiKey;
+    }
+
+    public String getUrl()
+    {
+        return url;
+    }
+
+    public int getQueueSize()
+    {
+        return queueSize;
+    }
+
+    public double getRateLimit()
+    {
+        return rateLimit;
+    }
+
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "RollbarRoute[name=" + name + "]";
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.tapstream.rollbar;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, append-only dictionary mapping strings to small int ids. Lookups of known strings are lock free; once
+ * {@code capacity} strings are held new strings are no longer assigned an id and callers keep their own copy.
+ */
+public class StringDictionary
+{
+
+    public static final int NULL_ID = -1;
+    public static final int NOT_INTERNED = -2;
+
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private final AtomicReferenceArray<String> values;
+    private final int capacity;
+    private volatile int size;
+
+    public StringDictionary(int capacity)
+    {
+        this.capacity = capacity;
+        this.values = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Returns the id of {@code value}, adding it if there is room, {@link #NULL_ID} for null, or {@link #NOT_INTERNED}
+     * when the dictionary is full.
+     */
+    public int idOf(String value)
+    {
+        if (value == null)
+        {
+            return NULL_ID;
+        }
+        Integer id = ids.get(value);
+        if (id != null)
+        {
+            return id;
+        }
+        synchronized (this)
+        {
+            id = ids.get(value);
+            if (id != null)
+            {
+                return id;
+            }
+            if (size >= capacity)
+            {
+                return NOT_INTERNED;
+            }
+            int next = size;
+            values.set(next, value);
+            ids.put(value, next);
+            size = next + 1;
+            return next;
+        }
+    }
+
+    public String valueOf(int id)
+    {
+        return id == NULL_ID ? null : values.get(id);
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+}
@@ -0,0 +1,340 @@
+package com.tapstream.rollbar;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts events by fingerprint instead of sending each one. Events are looked up by the cheap hash of the fingerprint's
+ * inputs and only compared in full with the entries sharing that hash, so two fingerprints never share a count.
+ * Counting an event already in the table increments a striped counter; the first event of each fingerprint is kept as
+ * the representative whose message and stack trace the summary item carries. {@link #drain()} turns the counts since
+ * the last drain into one item per fingerprint.
+ * <p>
+ * Counters are never reset: a drain reports what was added since the sum it last reported, so an increment racing with
+ * a drain is reported by the next one rather than lost. Entries not counted into for an interval are removed from the
+ * table but still summed by every drain for a grace period, long enough for any thread that found one just before it
+ * was removed to finish its increment.
+ */
+public class SummaryAggregator
+{
+
+    public static final String COUNT_KEY = "summary.count";
+    public static final String RATE_KEY = "summary.rate_per_second";
+    public static final String INTERVAL_KEY = "summary.interval_seconds";
+
+    /** How long removed entries are still summed for increments that were under way when they were removed. */
+    static final long RETIRED_GRACE_MILLIS = 1000;
+
+    private final int maxEntries;
+    private final FrameDictionary frameStrings;
+    /** Entries by fingerprint hash; buckets are replaced, never modified, and only while holding this aggregator. */
+    private final ConcurrentMap<Integer, Entry[]> entries = new ConcurrentHashMap<>();
+    /** Entries removed from the table within the grace period, whose late increments drains still report. */
+    private final List<Entry> retired = new ArrayList<>();
+    private volatile int size;
+    private volatile long lastDrain = System.currentTimeMillis();
+
+    public SummaryAggregator(int maxEntries, FrameDictionary frameStrings)
+    {
+        this.maxEntries = maxEntries;
+        this.frameStrings = frameStrings;
+    }
+
+    /**
+     * Counts an event, returning false if it is a new fingerprint and the table is full.
+     */
+    public boolean record(String level, String message, Throwable throwable, Map<String, String> context)
+    {
+        StackTraceElement[][] traces = traces(throwable);
+        int hash = hash(message, throwable, traces);
+        Entry entry = find(hash, level, message, throwable, traces);
+        if (entry == null)
+        {
+            if (size >= maxEntries)
+            {
+                return false;
+            }
+            entry = add(new Entry(hash, level, message, throwable, traces,
+                                  CapturedEvent.capture(level, message, throwable, context, frameStrings)),
+                        message, throwable, traces);
+            if (entry == null)
+            {
+                return false;
+            }
+        }
+        entry.count.increment();
+        return true;
+    }
+
+    /**
+     * Returns one summary event per fingerprint seen since the last drain, resetting the counts. Fingerprints that were
+     * not seen again are removed from the table.
+     */
+    public synchronized List<CapturedEvent> drain()
+    {
+        long now = System.currentTimeMillis();
+        double seconds = Math.max(1, now - lastDrain) / 1000.0;
+        lastDrain = now;
+
+        List<CapturedEvent> summaries = new ArrayList<>();
+        for (Iterator<Entry> it = retired.iterator(); it.hasNext(); )
+        {
+            Entry entry = it.next();
+            long late = entry.unreported();
+            if (late > 0)
+            {
+                summaries.add(summary(entry, late, seconds, now));
+            }
+            if (now - entry.retiredAt >= RETIRED_GRACE_MILLIS)
+            {
+                it.remove();
+            }
+        }
+        for (Entry[] bucket : entries.values())
+        {
+            for (Entry entry : bucket)
+            {
+                long count = entry.unreported();
+                if (count == 0)
+                {
+                    remove(entry);
+                    entry.retiredAt = now;
+                    retired.add(entry);
+                } else
+                {
+                    summaries.add(summary(entry, count, seconds, now));
+                }
+            }
+        }
+        return summaries;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    private static CapturedEvent summary(Entry entry, long count, double seconds, long now)
+    {
+        CapturedEvent representative = entry.representative;
+        Map<String, String> context = new HashMap<>(representative.getContext());
+        context.put(COUNT_KEY, Long.toString(count));
+        context.put(RATE_KEY, String.format(Locale.ROOT, "%.3f", count / seconds));
+        context.put(INTERVAL_KEY, String.format(Locale.ROOT, "%.0f", seconds));
+        return new CapturedEvent(representative.getLevel(), representative.getMessage(), representative.getThrowable(),
+                                 context, now);
+    }
+
+    private Entry find(int hash, String level, String message, Throwable throwable, StackTraceElement[][] traces)
+    {
+        Entry[] bucket = entries.get(hash);
+        if (bucket != null)
+        {
+            for (Entry entry : bucket)
+            {
+                if (entry.matches(level, message, throwable, traces))
+                {
+                    return entry;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds a new entry, returning the one already added by another thread for the same fingerprint, or null if the
+     * table is full.
+     */
+    private synchronized Entry add(Entry created, String message, Throwable throwable, StackTraceElement[][] traces)
+    {
+        Entry[] bucket = entries.get(created.hash);
+        if (bucket == null)
+        {
+            bucket = new Entry[0];
+        }
+        for (Entry entry : bucket)
+        {
+            if (entry.matches(created.level, message, throwable, traces))
+            {
+                return entry;
+            }
+        }
+        if (size >= maxEntries)
+        {
+            return null;
+        }
+        Entry[] grown = new Entry[bucket.length + 1];
+        System.arraycopy(bucket, 0, grown, 0, bucket.length);
+        grown[bucket.length] = created;
+        entries.put(created.hash, grown);
+        size++;
+        return created;
+    }
+
+    private void remove(Entry removed)
+    {
+        Entry[] bucket = entries.get(removed.hash);
+        if (bucket.length == 1)
+        {
+            entries.remove(removed.hash);
+        } else
+        {
+            Entry[] shrunk = new Entry[bucket.length - 1];
+            int i = 0;
+            for (Entry entry : bucket)
+            {
+                if (entry != removed)
+                {
+                    shrunk[i++] = entry;
+                }
+            }
+            entries.put(removed.hash, shrunk);
+        }
+        size--;
+    }
+
+    /**
+     * The stack trace of each throwable in the chain, fetched once per event.
+     */
+    private static StackTraceElement[][] traces(Throwable throwable)
+    {
+        if (throwable == null)
+        {
+            return null;
+        }
+        int length = 0;
+        for (Throwable t = throwable; t != null; t = t.getCause())
+        {
+            length++;
+        }
+        StackTraceElement[][] traces = new StackTraceElement[length][];
+        int i = 0;
+        for (Throwable t = throwable; t != null; t = t.getCause())
+        {
+            traces[i++] = t.getStackTrace();
+        }
+        return traces;
+    }
+
+    /**
+     * Same hash as {@link NotifyBuilder#fingerprintHash(String, Throwable)}, from the traces already fetched.
+     */
+    private static int hash(String message, Throwable throwable, StackTraceElement[][] traces)
+    {
+        if (throwable == null)
+        {
+            return message == null ? 0 : message.hashCode();
+        }
+        int hash = 1;
+        int i = 0;
+        for (Throwable t = throwable; t != null; t = t.getCause())
+        {
+            hash = 31 * hash + t.getClass().getName().hashCode();
+            for (StackTraceElement element : traces[i++])
+            {
+                hash = 31 * hash + element.getClassName().hashCode();
+                hash = 31 * hash + element.getMethodName().hashCode();
+            }
+        }
+        return hash;
+    }
+
+    private static final class Entry
+    {
+
+        final int hash;
+        final String level;
+        final CapturedEvent representative;
+        /** The fingerprint's inputs: the message, or the class and frame class and method names of each throwable. */
+        final String[] parts;
+        final LongAdder count = new LongAdder();
+
+        // Only used by drain()
+        private long reported;
+        private long retiredAt;
+
+        Entry(int hash, String level, String message, Throwable throwable, StackTraceElement[][] traces,
+              CapturedEvent representative)
+        {
+            this.hash = hash;
+            this.level = level;
+            this.representative = representative;
+            this.parts = parts(message, throwable, traces);
+        }
+
+        private static String[] parts(String message, Throwable throwable, StackTraceElement[][] traces)
+        {
+            if (throwable == null)
+            {
+                return new String[]{message};
+            }
+            List<String> parts = new ArrayList<>();
+            int i = 0;
+            for (Throwable t = throwable; t != null; t = t.getCause())
+            {
+                parts.add(t.getClass().getName());
+                for (StackTraceElement element : traces[i++])
+                {
+                    parts.add(element.getClassName());
+                    parts.add(element.getMethodName());
+                }
+                // Separates the chain's throwables, so frames can't shift between them
+                parts.add(null);
+            }
+            return parts.toArray(new String[parts.size()]);
+        }
+
+        boolean matches(String level, String message, Throwable throwable, StackTraceElement[][] traces)
+        {
+            if (!this.level.equals(level))
+            {
+                return false;
+            }
+            if (throwable == null)
+            {
+                return parts.length == 1 && (message == null ? parts[0] == null : message.equals(parts[0]));
+            }
+            int p = 0;
+            int i = 0;
+            for (Throwable t = throwable; t != null; t = t.getCause())
+            {
+                StackTraceElement[] elements = traces[i++];
+                if (p + 2 + 2 * elements.length > parts.length || !t.getClass().getName().equals(parts[p++]))
+                {
+                    return false;
+                }
+                for (StackTraceElement element : elements)
+                {
+                    if (!element.getClassName().equals(parts[p++]) || !element.getMethodName().equals(parts[p++]))
+                    {
+                        return false;
+                    }
+                }
+                if (parts[p++] != null)
+                {
+                    return false;
+                }
+            }
+            return p == parts.length;
+        }
+
+        /**
+         * Count added since the last call.
+         */
+        long unreported()
+        {
+            long total = count.sum();
+            long unreported = total - reported;
+            reported = total;
+            return unreported;
+        }
+    }
+
+}
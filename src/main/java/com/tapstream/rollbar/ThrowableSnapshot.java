@@ -0,0 +1,163 @@
+package com.tapstream.rollbar;
+
+/**
+ * Compact copy of a throwable and its causes for items waiting in a queue. Class, file and method names are interned in
+ * the pipeline's {@link FrameDictionary} and each frame is held as four ints, so thousands of queued items with similar
+ * stack traces share one copy of their strings. Stack trace elements are rebuilt only when the item is serialized.
+ * The logging thread's context class loader is kept so that the frames' classes can be looked up by the sender.
+ */
+public class ThrowableSnapshot
+{
+
+    private static final int FRAME_INTS = 4;
+
+    private final Link[] chain;
+    private final int fingerprintHash;
+    private final ClassLoader classLoader;
+
+    private ThrowableSnapshot(Link[] chain, int fingerprintHash, ClassLoader classLoader)
+    {
+        this.chain = chain;
+        this.fingerprintHash = fingerprintHash;
+        this.classLoader = classLoader;
+    }
+
+    public static ThrowableSnapshot capture(Throwable throwable, FrameDictionary dictionary)
+    {
+        int length = 0;
+        for (Throwable t = throwable; t != null; t = t.getCause())
+        {
+            length++;
+        }
+        Link[] chain = new Link[length];
+        int i = 0;
+        int hash = 1;
+        for (Throwable t = throwable; t != null; t = t.getCause())
+        {
+            // Same hash as NotifyBuilder.fingerprintHash, computed from the one copy of the stack trace
+            StackTraceElement[] elements = t.getStackTrace();
+            hash = 31 * hash + t.getClass().getName().hashCode();
+            for (StackTraceElement element : elements)
+            {
+                hash = 31 * hash + element.getClassName().hashCode();
+                hash = 31 * hash + element.getMethodName().hashCode();
+            }
+            chain[i++] = new Link(t, elements, dictionary);
+        }
+        return new ThrowableSnapshot(chain, hash, Thread.currentThread().getContextClassLoader());
+    }
+
+    /**
+     * {@link NotifyBuilder#fingerprintHash(String, Throwable)} of the captured throwable.
+     */
+    public int getFingerprintHash()
+    {
+        return fingerprintHash;
+    }
+
+    /**
+     * Context class loader of the thread that captured the throwable, or null.
+     */
+    public ClassLoader getClassLoader()
+    {
+        return classLoader;
+    }
+
+    /**
+     * Number of throwables in the chain, starting with the one logged and followed by its causes.
+     */
+    public int size()
+    {
+        return chain.length;
+    }
+
+    public String getClassName(int index)
+    {
+        return chain[index].className;
+    }
+
+    public String getMessage(int index)
+    {
+        return chain[index].message;
+    }
+
+    public StackTraceElement[] getStackTrace(int index)
+    {
+        return chain[index].stackTrace();
+    }
+
+    private static final class Link
+    {
+
+        private final String className;
+        private final String message;
+        private final StringDictionary strings;
+        private final int[] frames;
+        private final StackTraceElement[] elements;
+
+        Link(Throwable throwable, StackTraceElement[] elements, FrameDictionary dictionary)
+        {
+            StringDictionary strings = dictionary.current();
+            int[] frames = intern(elements, strings);
+            if (frames == null)
+            {
+                // Dictionary is full: start a new one, and keep the original elements if even that is not enough
+                strings = dictionary.reset(strings);
+                frames = intern(elements, strings);
+            }
+            this.className = intern(throwable.getClass().getName(), strings);
+            this.message = throwable.getMessage();
+            this.strings = strings;
+            this.frames = frames;
+            this.elements = frames == null ? elements : null;
+        }
+
+        private static int[] intern(StackTraceElement[] elements, StringDictionary strings)
+        {
+            int[] frames = new int[elements.length * FRAME_INTS];
+            for (int i = 0; i < elements.length; i++)
+            {
+                StackTraceElement element = elements[i];
+                int classId = strings.idOf(element.getClassName());
+                int fileId = strings.idOf(element.getFileName());
+                int methodId = strings.idOf(element.getMethodName());
+                if (classId == StringDictionary.NOT_INTERNED || fileId == StringDictionary.NOT_INTERNED
+                        || methodId == StringDictionary.NOT_INTERNED)
+                {
+                    return null;
+                }
+                int offset = i * FRAME_INTS;
+                frames[offset] = classId;
+                frames[offset + 1] = fileId;
+                frames[offset + 2] = methodId;
+                frames[offset + 3] = element.getLineNumber();
+            }
+            return frames;
+        }
+
+        private static String intern(String value, StringDictionary strings)
+        {
+            int id = strings.idOf(value);
+            return id >= 0 ? strings.valueOf(id) : value;
+        }
+
+        StackTraceElement[] stackTrace()
+        {
+            if (elements != null)
+            {
+                return elements;
+            }
+            StackTraceElement[] result = new StackTraceElement[frames.length / FRAME_INTS];
+            for (int i = 0; i < result.length; i++)
+            {
+                int offset = i * FRAME_INTS;
+                result[i] = new StackTraceElement(strings.valueOf(frames[offset]),
+                                                  strings.valueOf(frames[offset + 2]),
+                                                  strings.valueOf(frames[offset + 1]),
+                                                  frames[offset + 3]);
+            }
+            return result;
+        }
+    }
+
+}
@@ -0,0 +1,106 @@
+package com.tapstream.rollbar;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.status.StatusLogger;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Does once, in the background, the work the first real item would otherwise pay for: resolves each endpoint's host
+ * name, opens a connection to it with a {@code HEAD} request so the connection and TLS session are kept for reuse, and
+ * builds and serializes sample payloads until the JIT has compiled the builder. Failures are only logged; the same
+ * work is simply done again on first use.
+ * <p>
+ * The connection is only kept in the JDK's keep-alive cache, which closes it after about 5 seconds idle, and resolved
+ * addresses are cached for 30 seconds by default ({@code networkaddress.cache.ttl}). Neither is refreshed afterwards,
+ * so the warm-up helps an error logged soon after startup; later errors pay for their own connection as before.
+ */
+public class Warmup implements Runnable
+{
+
+    private static final Logger LOGGER = StatusLogger.getLogger();
+
+    static final int BUILD_ITERATIONS = 2000;
+
+    private final NotifyBuilder builder;
+    private final List<URL> urls;
+    private final IHttpRequester httpRequester;
+
+    /**
+     * @param builder builder to prime; as the JIT compiles code rather than instances, one builder primes them all.
+     *                Null only connects.
+     */
+    public Warmup(NotifyBuilder builder, List<URL> urls, IHttpRequester httpRequester)
+    {
+        this.builder = builder;
+        this.urls = urls;
+        this.httpRequester = httpRequester;
+    }
+
+    @Override
+    public void run()
+    {
+        long start = System.nanoTime();
+        for (URL url : urls)
+        {
+            if (Thread.currentThread().isInterrupted())
+            {
+                return;
+            }
+            connect(url);
+        }
+        if (builder != null && !prime(builder))
+        {
+            return;
+        }
+        LOGGER.debug("Rollbar warm-up finished in " + (System.nanoTime() - start) / 1000000 + "ms");
+    }
+
+    private void connect(URL url)
+    {
+        try
+        {
+            InetAddress.getAllByName(url.getHost());
+            httpRequester.send(new HttpRequest(url, "HEAD"));
+        } catch (UnknownHostException e)
+        {
+            LOGGER.warn("Rollbar warm-up could not resolve [" + url.getHost() + "]");
+        } catch (IOException | RuntimeException e)
+        {
+            LOGGER.debug("Rollbar warm-up could not connect to [" + url + "]: " + e);
+        }
+    }
+
+    /**
+     * Builds and serializes payloads through both the direct and the queued path, returning false if interrupted.
+     */
+    private boolean prime(NotifyBuilder builder)
+    {
+        Map<String, String> context = new HashMap<>();
+        context.put(RollbarFilter.REQUEST_URL, "http://localhost/warmup");
+        context.put(RollbarFilter.REQUEST_METHOD, "GET");
+        context.put(RollbarFilter.REQUEST_HEADER_PREFIX + "Accept", "*/*");
+        context.put("warmup", "true");
+        Throwable throwable = new IllegalStateException("warm-up", new RuntimeException("cause"));
+        FrameDictionary frameStrings = new FrameDictionary(FrameDictionary.DEFAULT_CAPACITY);
+
+        for (int i = 0; i < BUILD_ITERATIONS; i++)
+        {
+            if (Thread.currentThread().isInterrupted())
+            {
+                return false;
+            }
+            builder.toBytes(builder.build("error", "warm-up", throwable, context));
+            builder.toBytes(builder.build(CapturedEvent.capture("warning", "warm-up", null, context, frameStrings)));
+            builder.toBytes(builder.build(CapturedEvent.capture("error", "warm-up", throwable, context, frameStrings)));
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,149 @@
+package com.tapstream.rollbar;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Drives a started {@link RollbarAppender} from several producer threads and reports throughput, the latency seen by
+ * the logging threads, and how many items the {@link RollbarStubServer} actually accepted.
+ */
+public class LoadGenerator {
+
+    private final RollbarAppender appender;
+    private final RollbarStubServer server;
+    private final int producers;
+    private final int eventsPerProducer;
+    private int throwableEvery = 10;
+
+    public LoadGenerator(RollbarAppender appender, RollbarStubServer server, int producers, int eventsPerProducer) {
+        this.appender = appender;
+        this.server = server;
+        this.producers = producers;
+        this.eventsPerProducer = eventsPerProducer;
+    }
+
+    /**
+     * Attaches an exception to every n-th event; 0 sends plain messages only.
+     */
+    public void setThrowableEvery(int throwableEvery) {
+        this.throwableEvery = throwableEvery;
+    }
+
+    /**
+     * Runs the producers, then stops the appender so queued items get flushed before delivery is counted.
+     */
+    public Report run() throws InterruptedException {
+        final long[][] latencies = new long[producers][eventsPerProducer];
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[producers];
+        long acceptedBefore = server.getAccepted();
+
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            threads[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < eventsPerProducer; i++) {
+                        LogEvent event = event(producer, i);
+                        long begin = System.nanoTime();
+                        appender.append(event);
+                        latencies[producer][i] = System.nanoTime() - begin;
+                    }
+                }
+            }, "load-producer-" + p);
+            threads[p].start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long produceNanos = System.nanoTime() - begin;
+        appender.stop();
+        long totalNanos = System.nanoTime() - begin;
+
+        long[] all = new long[producers * eventsPerProducer];
+        for (int p = 0; p < producers; p++) {
+            System.arraycopy(latencies[p], 0, all, p * eventsPerProducer, eventsPerProducer);
+        }
+        Arrays.sort(all);
+        return new Report(all, produceNanos, totalNanos, server.getAccepted() - acceptedBefore);
+    }
+
+    private LogEvent event(int producer, int index) {
+        Throwable thrown = throwableEvery > 0 && index % throwableEvery == 0
+                ? new IllegalStateException("load " + producer + "-" + index) : null;
+        return Log4jLogEvent.newBuilder()
+                .setLoggerName("load." + producer)
+                .setLevel(thrown == null ? Level.WARN : Level.ERROR)
+                .setMessage(new SimpleMessage("load event " + index))
+                .setThrown(thrown)
+                .build();
+    }
+
+    public static class Report {
+
+        private final long[] sortedLatencies;
+        private final long produceNanos;
+        private final long totalNanos;
+        private final long delivered;
+
+        Report(long[] sortedLatencies, long produceNanos, long totalNanos, long delivered) {
+            this.sortedLatencies = sortedLatencies;
+            this.produceNanos = produceNanos;
+            this.totalNanos = totalNanos;
+            this.delivered = delivered;
+        }
+
+        public int getEvents() {
+            return sortedLatencies.length;
+        }
+
+        public long getDelivered() {
+            return delivered;
+        }
+
+        public long getLost() {
+            return getEvents() - delivered;
+        }
+
+        /** Events appended per second by all producers together. */
+        public double getThroughput() {
+            return getEvents() / (produceNanos / 1e9);
+        }
+
+        /** Items accepted by the server per second, including the final flush. */
+        public double getDeliveryRate() {
+            return delivered / (totalNanos / 1e9);
+        }
+
+        public long percentileNanos(double percentile) {
+            if (sortedLatencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * sortedLatencies.length) - 1;
+            return sortedLatencies[Math.max(0, Math.min(index, sortedLatencies.length - 1))];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("events=%d delivered=%d lost=%d throughput=%.0f/s delivery=%.0f/s "
+                                 + "caller latency us p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f",
+                                 getEvents(), delivered, getLost(), getThroughput(), getDeliveryRate(),
+                                 percentileNanos(50) / 1e3, percentileNanos(90) / 1e3, percentileNanos(99) / 1e3,
+                                 percentileNanos(99.9) / 1e3, percentileNanos(100) / 1e3);
+        }
+    }
+
+}
@@ -0,0 +1,51 @@
+package com.tapstream.rollbar;
+
+import org.apache.logging.log4j.Level;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Load test against a local {@link RollbarStubServer}, skipped unless {@code -Drollbar.loadtest=true} is given:
+ *
+ * <pre>
+ * mvn test -Dtest=RollbarLoadTest -Drollbar.loadtest=true -Dproducers=8 -Devents=10000 -DqueueSize=10000 \
+ *     -DsenderThreads=4 -DlatencyMillis=20 -DerrorRate=0.01 -DthrottleRate=0.01 -DresetRate=0.01
+ * </pre>
+ */
+public class RollbarLoadTest {
+
+    @Test
+    public void testLoad() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("rollbar.loadtest"));
+
+        try (RollbarStubServer server = new RollbarStubServer()) {
+            server.setLatencyMillis(Long.getLong("latencyMillis", 0));
+            server.setErrorRate(Double.parseDouble(System.getProperty("errorRate", "0")));
+            server.setThrottleRate(Double.parseDouble(System.getProperty("throttleRate", "0")));
+            server.setResetRate(Double.parseDouble(System.getProperty("resetRate", "0")));
+            server.setSlowReadMillisPerKb(Long.getLong("slowReadMillisPerKb", 0));
+
+            RollbarAppender appender = RollbarAppender.newBuilder()
+                    .setName("load").setUrl(server.getUrl().toString()).setApiKey("api key").setEnvironment("load")
+                    .setQueueSize(Integer.getInteger("queueSize", 10000))
+                    .setRateLimit(Double.parseDouble(System.getProperty("rateLimit", "0")))
+                    .setBatchSize(Integer.getInteger("batchSize", 100))
+                    .setOffHeapBytes(Long.getLong("offHeapBytes", 0))
+                    .setSheddingBudgetMicros(Long.getLong("sheddingBudgetMicros", 0))
+                    .setSenderThreads(Integer.getInteger("senderThreads", 1))
+                    .setSummaryLevel(Level.toLevel(System.getProperty("summaryLevel"), null))
+                    .setSummaryIntervalSeconds(Long.getLong("summaryIntervalSeconds", 60))
+                    .setEnrichFrames(Boolean.getBoolean("enrichFrames"))
+                    .setAppPackages(System.getProperty("appPackages"))
+                    .setWarmUp(Boolean.getBoolean("warmUp"))
+                    .build();
+            appender.start();
+
+            LoadGenerator generator = new LoadGenerator(appender, server, Integer.getInteger("producers", 8),
+                                                        Integer.getInteger("events", 10000));
+            generator.setThrowableEvery(Integer.getInteger("throwableEvery", 10));
+            System.out.println("Rollbar load test: " + generator.run());
+        }
+    }
+
+}
@@ -0,0 +1,276 @@
+package com.tapstream.rollbar;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Rollbar compatible item endpoint on a local socket. Besides accepting items it can add latency, answer with 500s or
+ * 429s with a Retry-After header, reset connections and read request bodies slowly, each at a configurable rate.
+ */
+public class RollbarStubServer implements Closeable {
+
+    private static final String OK_BODY = "{\"err\":0,\"result\":{\"id\":null,\"uuid\":\"00000000000000000000000000000000\"}}";
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections;
+
+    private volatile long latencyMillis;
+    private volatile double errorRate;
+    private volatile double throttleRate;
+    private volatile int retryAfterSeconds = 1;
+    private volatile double resetRate;
+    private volatile long slowReadMillisPerKb;
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong resets = new AtomicLong();
+    private final AtomicLong heads = new AtomicLong();
+    private final AtomicLong connectionsOpened = new AtomicLong();
+    private final AtomicReference<String> lastBody = new AtomicReference<>();
+
+    public RollbarStubServer() throws IOException {
+        serverSocket = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+        connections = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "rollbar-stub");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        connections.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        });
+    }
+
+    public URL getUrl() {
+        try {
+            return new URL("http", serverSocket.getInetAddress().getHostAddress(), serverSocket.getLocalPort(), "/api/1/item/");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    public void setThrottleRate(double throttleRate) {
+        this.throttleRate = throttleRate;
+    }
+
+    public void setRetryAfterSeconds(int retryAfterSeconds) {
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public void setResetRate(double resetRate) {
+        this.resetRate = resetRate;
+    }
+
+    public void setSlowReadMillisPerKb(long slowReadMillisPerKb) {
+        this.slowReadMillisPerKb = slowReadMillisPerKb;
+    }
+
+    /** Requests read, whatever the response. */
+    public long getReceived() {
+        return received.get();
+    }
+
+    /** Requests answered with 200. */
+    public long getAccepted() {
+        return accepted.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public long getThrottled() {
+        return throttled.get();
+    }
+
+    public long getResets() {
+        return resets.get();
+    }
+
+    /** HEAD requests, answered without a body and not counted as received. */
+    public long getHeads() {
+        return heads.get();
+    }
+
+    /** TCP connections accepted; lower than the request count when clients keep connections alive. */
+    public long getConnections() {
+        return connectionsOpened.get();
+    }
+
+    public String getLastBody() {
+        return lastBody.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        connections.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket socket = serverSocket.accept();
+                connectionsOpened.incrementAndGet();
+                connections.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            } catch (IOException e) {
+                // Closed
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            InputStream in = new BufferedInputStream(s.getInputStream());
+            OutputStream out = s.getOutputStream();
+            while (true) {
+                String requestLine = readLine(in);
+                if (requestLine == null || requestLine.isEmpty()) {
+                    return;
+                }
+                int contentLength = 0;
+                boolean close = false;
+                for (String header = readLine(in); header != null && !header.isEmpty(); header = readLine(in)) {
+                    String lower = header.toLowerCase(Locale.ROOT);
+                    if (lower.startsWith("content-length:")) {
+                        contentLength = Integer.parseInt(header.substring("content-length:".length()).trim());
+                    } else if (lower.startsWith("connection:") && lower.contains("close")) {
+                        close = true;
+                    }
+                }
+                byte[] body = readBody(in, contentLength);
+                if (requestLine.startsWith("HEAD ")) {
+                    heads.incrementAndGet();
+                    writeHead(out, "200 OK", "", OK_BODY.getBytes(StandardCharsets.UTF_8).length);
+                    out.flush();
+                    if (close) {
+                        return;
+                    }
+                    continue;
+                }
+                received.incrementAndGet();
+
+                if (!respond(s, out, body) || close) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            // Client went away
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean respond(Socket socket, OutputStream out, byte[] body) throws IOException, InterruptedException {
+        double roll = ThreadLocalRandom.current().nextDouble();
+        if (roll < resetRate) {
+            resets.incrementAndGet();
+            socket.setSoLinger(true, 0);
+            return false;
+        }
+        if (latencyMillis > 0) {
+            Thread.sleep(latencyMillis);
+        }
+        if (roll < resetRate + throttleRate) {
+            throttled.incrementAndGet();
+            writeResponse(out, "429 Too Many Requests", "Retry-After: " + retryAfterSeconds + "\r\n",
+                          "{\"err\":1,\"message\":\"rate limited\"}");
+        } else if (roll < resetRate + throttleRate + errorRate) {
+            errors.incrementAndGet();
+            writeResponse(out, "500 Internal Server Error", "", "{\"err\":1,\"message\":\"stub error\"}");
+        } else {
+            lastBody.set(new String(body, StandardCharsets.UTF_8));
+            accepted.incrementAndGet();
+            writeResponse(out, "200 OK", "", OK_BODY);
+        }
+        return true;
+    }
+
+    private byte[] readBody(InputStream in, int length) throws IOException, InterruptedException {
+        byte[] body = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int chunk = slowReadMillisPerKb > 0 ? Math.min(1024, length - read) : length - read;
+            int n = in.read(body, read, chunk);
+            if (n < 0) {
+                throw new SocketException("Connection closed while reading body");
+            }
+            read += n;
+            if (slowReadMillisPerKb > 0) {
+                Thread.sleep(slowReadMillisPerKb);
+            }
+        }
+        return body;
+    }
+
+    private static void writeResponse(OutputStream out, String status, String extraHeaders, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        writeHead(out, status, extraHeaders, bytes.length);
+        out.write(bytes);
+        out.flush();
+    }
+
+    private static void writeHead(OutputStream out, String status, String extraHeaders, int contentLength) throws IOException {
+        String head = "HTTP/1.1 " + status + "\r\n"
+                + "Content-Type: application/json\r\n"
+                + "Content-Length: " + contentLength + "\r\n"
+                + extraHeaders
+                + "\r\n";
+        out.write(head.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                break;
+            }
+            if (c != '\r') {
+                line.write(c);
+            }
+        }
+        if (c == -1 && line.size() == 0) {
+            return null;
+        }
+        return new String(line.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+}
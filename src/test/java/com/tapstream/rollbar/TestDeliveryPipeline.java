@@ -0,0 +1,201 @@
+package com.tapstream.rollbar;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestDeliveryPipeline {
+
+    private URL endpoint;
+    private DeliveryPipeline pipeline;
+
+    @Before
+    public void setup() throws Exception {
+        endpoint = new URL("http://rollbar.endpoint/");
+    }
+
+    @After
+    public void teardown() {
+        if (pipeline != null) {
+            pipeline.stop(1000);
+        }
+    }
+
+    private DeliveryPipeline createPipeline(int queueSize, double rateLimit, IHttpRequester requester) {
+        DeliveryPipeline pipeline = new DeliveryPipeline("test", new NotifyBuilder("api key", "test"), queueSize, rateLimit, 10);
+        pipeline.setTransport(endpoint, requester);
+        pipeline.start();
+        return pipeline;
+    }
+
+    private void submit(DeliveryPipeline pipeline) {
+        pipeline.submit("error", "test", null, new HashMap<String, String>());
+    }
+
+    @Test
+    public void testSynchronousDelivery() throws Exception {
+        MockHttpRequester requester = new MockHttpRequester();
+        pipeline = createPipeline(0, 0, requester);
+        submit(pipeline);
+        assertEquals(endpoint, requester.getRequest().getUrl());
+    }
+
+    @Test
+    public void testQueuedDelivery() throws Exception {
+        final CountDownLatch delivered = new CountDownLatch(5);
+        pipeline = createPipeline(10, 0, new IHttpRequester() {
+            @Override
+            public int send(HttpRequest request) throws IOException {
+                delivered.countDown();
+                return 200;
+            }
+        });
+        for (int i = 0; i < 5; i++) {
+            submit(pipeline);
+        }
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        assertEquals(0, pipeline.getDropped());
+    }
+
+    @Test
+    public void testFullQueueDropsWithoutBlocking() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        pipeline = createPipeline(2, 0, new IHttpRequester() {
+            @Override
+            public int send(HttpRequest request) throws IOException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return 200;
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            submit(pipeline);
+        }
+        release.countDown();
+        assertTrue(pipeline.getDropped() >= 6);
+    }
+
+    @Test
+    public void testSendersShareQueueCapacity() throws Exception {
+        final CountDownLatch sending = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        pipeline = new DeliveryPipeline("test", new NotifyBuilder("api key", "test"), 4, 0, 1);
+        pipeline.setSenderThreads(2);
+        pipeline.setTransport(endpoint, new IHttpRequester() {
+            @Override
+            public int send(HttpRequest request) throws IOException {
+                sending.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return 200;
+            }
+        });
+        pipeline.start();
+        try {
+            submit(pipeline);
+            assertTrue(sending.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 9; i++) {
+                submit(pipeline);
+            }
+            // One fingerprint, one partition: it may still use all four slots
+            assertEquals(4, pipeline.getQueued());
+            assertEquals(5, pipeline.getDropped());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testSameFingerprintKeepsOrderAcrossSenders() throws Exception {
+        final List<JsonObject> sent = Collections.synchronizedList(new ArrayList<JsonObject>());
+        pipeline = new DeliveryPipeline("test", new NotifyBuilder("api key", "test"), 1000, 0, 10);
+        pipeline.setSenderThreads(4);
+        pipeline.setTransport(endpoint, new IHttpRequester() {
+            @Override
+            public int send(HttpRequest request) throws IOException {
+                sent.add(new JsonParser().parse(new String(request.getBody(), "UTF-8")).getAsJsonObject());
+                return 200;
+            }
+        });
+        pipeline.start();
+        for (int i = 0; i < 400; i++) {
+            Map<String, String> context = new HashMap<>();
+            context.put("seq", Integer.toString(i));
+            pipeline.submit("error", "message " + (i % 8), null, context);
+        }
+        pipeline.stop(5000);
+
+        assertEquals(400, sent.size());
+        Map<String, Integer> lastSeq = new HashMap<>();
+        for (JsonObject item : sent) {
+            JsonObject data = item.getAsJsonObject("data");
+            String fingerprint = data.get("fingerprint").getAsString();
+            int seq = data.getAsJsonObject("custom").get("seq").getAsInt();
+            Integer previous = lastSeq.put(fingerprint, seq);
+            assertTrue(previous == null || previous < seq);
+        }
+        assertEquals(8, lastSeq.size());
+    }
+
+    @Test
+    public void testSynchronousRateLimitDrops() throws Exception {
+        final AtomicInteger sent = new AtomicInteger();
+        pipeline = createPipeline(0, 2, new IHttpRequester() {
+            @Override
+            public int send(HttpRequest request) throws IOException {
+                sent.incrementAndGet();
+                return 200;
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            submit(pipeline);
+        }
+        assertEquals(2, sent.get());
+        assertEquals(8, pipeline.getDropped());
+    }
+
+    @Test
+    public void testSynchronousPipelineDoesNotShed() throws Exception {
+        pipeline = new DeliveryPipeline("test", new NotifyBuilder("api key", "test"), 0, 0, 1);
+        pipeline.setSheddingBudgetMicros(1);
+        pipeline.setTransport(endpoint, new MockHttpRequester());
+        pipeline.start();
+        assertNull(pipeline.getLoadShedder());
+        assertEquals(LoadShedder.FULL, pipeline.admit());
+    }
+
+    @Test
+    public void testQueuedPipelineSheds() throws Exception {
+        pipeline = new DeliveryPipeline("test", new NotifyBuilder("api key", "test"), 10, 0, 1);
+        pipeline.setSheddingBudgetMicros(1000);
+        pipeline.setTransport(endpoint, new MockHttpRequester());
+        pipeline.start();
+        assertNotNull(pipeline.getLoadShedder());
+        assertEquals(LoadShedder.FULL, pipeline.admit());
+    }
+
+}
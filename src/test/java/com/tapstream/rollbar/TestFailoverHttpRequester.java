@@ -0,0 +1,211 @@
+package com.tapstream.rollbar;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestFailoverHttpRequester {
+
+    private URL primary;
+    private URL secondary;
+    private ScriptedRequester requester;
+    private FailoverHttpRequester failover;
+
+    @Before
+    public void setup() throws Exception {
+        primary = new URL("http://primary.rollbar/");
+        secondary = new URL("http://secondary.rollbar/");
+        requester = new ScriptedRequester();
+        failover = new FailoverHttpRequester(Arrays.asList(primary, secondary), requester);
+        failover.setFailureThreshold(2);
+        failover.setRetryAfterMillis(60000);
+    }
+
+    private HttpRequest request() throws Exception {
+        HttpRequest request = new HttpRequest(new URL("http://ignored/"), "POST");
+        request.setBody("{}");
+        return request;
+    }
+
+    @Test
+    public void testPrefersFirstEndpoint() throws Exception {
+        assertEquals(200, failover.send(request()));
+        assertEquals(Arrays.asList(primary), requester.sent);
+    }
+
+    @Test
+    public void testFailsOverOnServerError() throws Exception {
+        requester.statuses.put(primary, 503);
+        assertEquals(200, failover.send(request()));
+        assertEquals(Arrays.asList(primary, secondary), requester.sent);
+    }
+
+    @Test
+    public void testClientErrorIsNotRetried() throws Exception {
+        requester.statuses.put(primary, 422);
+        assertEquals(422, failover.send(request()));
+        assertEquals(Arrays.asList(primary), requester.sent);
+    }
+
+    @Test
+    public void testThrottlingDoesNotCountAgainstHealth() throws Exception {
+        requester.statuses.put(primary, 429);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(200, failover.send(request()));
+        }
+        requester.statuses.clear();
+        requester.sent.clear();
+
+        assertEquals(200, failover.send(request()));
+        assertEquals(Arrays.asList(primary), requester.sent);
+    }
+
+    @Test
+    public void testUnhealthyEndpointIsSkipped() throws Exception {
+        requester.failing.add(primary);
+        failover.send(request());
+        failover.send(request());
+        requester.sent.clear();
+
+        assertEquals(200, failover.send(request()));
+        assertEquals(Arrays.asList(secondary), requester.sent);
+    }
+
+    @Test
+    public void testUnhealthyEndpointIsRetriedAfterCooldown() throws Exception {
+        failover.setRetryAfterMillis(0);
+        requester.failing.add(primary);
+        failover.send(request());
+        failover.send(request());
+        requester.failing.clear();
+        requester.sent.clear();
+
+        assertEquals(200, failover.send(request()));
+        assertEquals(Arrays.asList(primary), requester.sent);
+    }
+
+    @Test
+    public void testAllEndpointsFailing() throws Exception {
+        requester.failing.add(primary);
+        requester.failing.add(secondary);
+        try {
+            failover.send(request());
+            fail("Expected the last IOException to be rethrown");
+        } catch (IOException e) {
+            assertEquals(Arrays.asList(primary, secondary), requester.sent);
+        }
+    }
+
+    @Test
+    public void testFailsFastWhileAllEndpointsCoolDown() throws Exception {
+        requester.failing.add(primary);
+        requester.failing.add(secondary);
+        sendIgnoringErrors();
+        sendIgnoringErrors();
+        requester.sent.clear();
+
+        try {
+            failover.send(request());
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            assertTrue(requester.sent.isEmpty());
+        }
+    }
+
+    @Test
+    public void testOnlyOneRequestProbesAfterCooldown() throws Exception {
+        final CountDownLatch probing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger sends = new AtomicInteger();
+        final FailoverHttpRequester single = new FailoverHttpRequester(Arrays.asList(primary), new IHttpRequester() {
+            @Override
+            public int send(HttpRequest request) throws IOException {
+                if (sends.incrementAndGet() <= 2) {
+                    throw new IOException("connection refused");
+                }
+                probing.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return 200;
+            }
+        });
+        single.setFailureThreshold(2);
+        single.setRetryAfterMillis(0);
+        for (int i = 0; i < 2; i++) {
+            try {
+                single.send(request());
+            } catch (IOException e) {
+                // Marks the endpoint unhealthy
+            }
+        }
+
+        final AtomicInteger probeStatus = new AtomicInteger();
+        Thread probe = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    probeStatus.set(single.send(request()));
+                } catch (Exception e) {
+                    probeStatus.set(-1);
+                }
+            }
+        });
+        probe.start();
+        assertTrue(probing.await(5, TimeUnit.SECONDS));
+
+        try {
+            single.send(request());
+            fail("Expected an IOException while the probe is in flight");
+        } catch (IOException e) {
+            assertEquals(3, sends.get());
+        }
+
+        release.countDown();
+        probe.join(5000);
+        assertEquals(200, probeStatus.get());
+        assertEquals(200, single.send(request()));
+    }
+
+    private void sendIgnoringErrors() throws Exception {
+        try {
+            failover.send(request());
+        } catch (IOException e) {
+            // Counted as a failure by the failover requester
+        }
+    }
+
+    private static class ScriptedRequester implements IHttpRequester {
+
+        final List<URL> sent = new ArrayList<>();
+        final List<URL> failing = new ArrayList<>();
+        final Map<URL, Integer> statuses = new HashMap<>();
+
+        @Override
+        public int send(HttpRequest request) throws IOException {
+            sent.add(request.getUrl());
+            if (failing.contains(request.getUrl())) {
+                throw new IOException("connection refused");
+            }
+            Integer status = statuses.get(request.getUrl());
+            return status == null ? 200 : status;
+        }
+    }
+
+}
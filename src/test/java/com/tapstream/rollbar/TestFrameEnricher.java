@@ -0,0 +1,158 @@
+package com.tapstream.rollbar;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestFrameEnricher {
+
+    private final ClassLoader loader = TestFrameEnricher.class.getClassLoader();
+    private final FrameEnricher enricher = new FrameEnricher(new String[]{"com.tapstream."}, 100);
+
+    @After
+    public void teardown() {
+        enricher.close();
+    }
+
+    @Test
+    public void testJarAndVersionFromManifest() {
+        FrameEnricher.ClassInfo info = enricher.lookup(Test.class.getName(), loader);
+        assertTrue(info.getJar(), info.getJar().startsWith("junit") && info.getJar().endsWith(".jar"));
+        assertEquals("4.12", info.getVersion());
+        assertFalse(enricher.isInApp(Test.class.getName()));
+    }
+
+    @Test
+    public void testApplicationClass() {
+        FrameEnricher.ClassInfo info = enricher.lookup(TestFrameEnricher.class.getName(), loader);
+        assertEquals("test-classes", info.getJar());
+        assertTrue(enricher.isInApp(TestFrameEnricher.class.getName()));
+    }
+
+    @Test
+    public void testClassesWithoutLocation() {
+        assertNull(enricher.lookup(String.class.getName(), loader).getJar());
+        assertNull(enricher.lookup("com.tapstream.DoesNotExist", loader).getJar());
+    }
+
+    @Test
+    public void testLookupIsCached() {
+        FrameEnricher.ClassInfo first = enricher.lookup(Test.class.getName(), loader);
+        assertSame(first, enricher.lookup(Test.class.getName(), loader));
+        assertEquals(1, enricher.size());
+        assertEquals(1, enricher.getLookups());
+    }
+
+    @Test
+    public void testCacheIsBounded() {
+        FrameEnricher small = new FrameEnricher(new String[]{"com.tapstream."}, 1);
+        assertNotNull(small.lookup(Test.class.getName(), loader).getJar());
+        assertNull(small.lookup(TestFrameEnricher.class.getName(), loader).getJar());
+        assertEquals(1, small.size());
+    }
+
+    @Test
+    public void testLocationName() throws Exception {
+        assertEquals("gson-2.8.1.jar", FrameEnricher.locationName(new URL("file:/repo/gson-2.8.1.jar")));
+        assertEquals("classes", FrameEnricher.locationName(new URL("file:/app/target/classes/")));
+    }
+
+    @Test
+    public void testCachedPerLoaderWithoutPinningIt() throws Exception {
+        URLClassLoader webapp = new URLClassLoader(new URL[0], loader);
+        enricher.lookup(Test.class.getName(), loader);
+        enricher.lookup(Test.class.getName(), webapp);
+        assertEquals(2, enricher.getLookups());
+        assertEquals(2, enricher.size());
+
+        WeakReference<ClassLoader> collected = new WeakReference<ClassLoader>(webapp);
+        webapp.close();
+        webapp = null;
+        for (int i = 0; i < 50 && collected.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(collected.get());
+    }
+
+    @Test
+    public void testLoggingThreadOnlyUsesCache() throws Exception {
+        assertNull(enricher.lookupCached(Test.class.getName(), loader));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (enricher.lookupCached(Test.class.getName(), loader) == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertNotNull(enricher.lookupCached(Test.class.getName(), loader));
+        assertEquals(1, enricher.getLookups());
+    }
+
+    @Test
+    public void testWarmLookupsCostLessThanCold() {
+        String[] classNames = {Test.class.getName(), TestFrameEnricher.class.getName(), String.class.getName(),
+                JsonObject.class.getName(), FrameEnricher.class.getName(), HashMap.class.getName()};
+
+        long coldStart = System.nanoTime();
+        for (String className : classNames) {
+            enricher.lookup(className, loader);
+        }
+        long cold = System.nanoTime() - coldStart;
+        long lookups = enricher.getLookups();
+
+        long warmStart = System.nanoTime();
+        for (String className : classNames) {
+            enricher.lookup(className, loader);
+        }
+        long warm = System.nanoTime() - warmStart;
+
+        assertEquals(lookups, enricher.getLookups());
+        assertTrue("warm " + warm + "ns, cold " + cold + "ns", warm < cold);
+    }
+
+    @Test
+    public void testQueuedFramesAreEnriched() {
+        Throwable throwable = new IllegalStateException("boom");
+        CapturedEvent event = CapturedEvent.capture("error", "test", throwable, new HashMap<String, String>(),
+                                                    new FrameDictionary(FrameDictionary.DEFAULT_CAPACITY));
+        JsonObject data = new NotifyBuilder("api key", "test", enricher).build(event).getAsJsonObject("data");
+
+        JsonArray frames = data.getAsJsonObject("body").getAsJsonArray("trace_chain").get(0).getAsJsonObject()
+                .getAsJsonArray("frames");
+        JsonObject last = frames.get(frames.size() - 1).getAsJsonObject();
+        assertEquals(TestFrameEnricher.class.getName(), last.get("class_name").getAsString());
+        assertEquals("test-classes", last.get("jar").getAsString());
+        assertTrue(last.get("in_app").getAsBoolean());
+    }
+
+    @Test
+    public void testFramesBuiltOnLoggingThreadAreNotLookedUp() {
+        Throwable throwable = new IllegalStateException("boom");
+        JsonObject plain = new NotifyBuilder("api key", "test").build("error", "test", throwable,
+                                                                      new HashMap<String, String>());
+        JsonObject enriched = new NotifyBuilder("api key", "test", enricher).build("error", "test", throwable,
+                                                                                   new HashMap<String, String>());
+
+        JsonObject data = enriched.getAsJsonObject("data");
+        assertEquals(plain.getAsJsonObject("data").get("fingerprint"), data.get("fingerprint"));
+
+        JsonArray frames = data.getAsJsonObject("body").getAsJsonArray("trace_chain").get(0).getAsJsonObject()
+                .getAsJsonArray("frames");
+        JsonObject last = frames.get(frames.size() - 1).getAsJsonObject();
+        assertFalse(last.has("jar"));
+        assertTrue(last.get("in_app").getAsBoolean());
+    }
+
+}
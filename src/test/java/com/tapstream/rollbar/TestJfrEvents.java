@@ -0,0 +1,145 @@
+package com.tapstream.rollbar;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestJfrEvents {
+
+    private static final String[] EVENTS = {
+            "com.tapstream.rollbar.EventCaptured",
+            "com.tapstream.rollbar.PayloadBuilt",
+            "com.tapstream.rollbar.BatchFlushed",
+            "com.tapstream.rollbar.HttpRequest",
+            "com.tapstream.rollbar.Dropped"
+    };
+
+    private List<RecordedEvent> record(Recording recording) throws Exception {
+        File dump = File.createTempFile("rollbar", ".jfr");
+        dump.deleteOnExit();
+
+        try (RollbarStubServer server = new RollbarStubServer()) {
+            recording.start();
+
+            DeliveryPipeline pipeline = new DeliveryPipeline("jfr", new NotifyBuilder("api key", "test"), 1, 0, 1);
+            pipeline.setTransport(server.getUrl(), new HttpRequester());
+            pipeline.start();
+            for (int i = 0; i < 20; i++) {
+                pipeline.submit("error", "jfr", null, new HashMap<String, String>());
+            }
+            pipeline.stop(5000);
+
+            recording.stop();
+            recording.dump(dump.toPath());
+        } finally {
+            recording.close();
+        }
+        return RecordingFile.readAllEvents(dump.toPath());
+    }
+
+    @Test
+    public void testPipelineEventsAreRecorded() throws Exception {
+        Recording recording = new Recording();
+        for (String event : EVENTS) {
+            recording.enable(event);
+        }
+
+        Set<String> names = new HashSet<>();
+        for (RecordedEvent event : record(recording)) {
+            String name = event.getEventType().getName();
+            names.add(name);
+            if (name.startsWith("com.tapstream.rollbar.")) {
+                assertNull(event.getStackTrace());
+                if (!name.endsWith("Dropped")) {
+                    assertFalse(event.getDuration().isNegative());
+                    assertTrue(event.getEndTime().compareTo(event.getStartTime()) >= 0);
+                }
+            }
+        }
+        for (String event : EVENTS) {
+            assertTrue(event, names.contains(event));
+        }
+    }
+
+    @Test
+    public void testLoadsWithoutJfr() throws Exception {
+        Class<?> events = Class.forName(JfrEvents.class.getName(), true, new WithoutJfrClassLoader());
+
+        assertNull(events.getMethod("beginCapture").invoke(null));
+        assertNull(events.getMethod("beginHttpRequest").invoke(null));
+        Method endBuild = events.getMethod("endBuild", Object.class, String.class, int.class);
+        endBuild.invoke(null, null, "jfr", 0);
+        events.getMethod("dropped", String.class, String.class).invoke(null, "jfr", "test");
+        assertEquals(0, events.getDeclaredClasses().length);
+    }
+
+    @Test
+    public void testEventsAreDisabledInDefaultSettings() throws Exception {
+        Recording recording = new Recording(Configuration.getConfiguration("default"));
+
+        for (RecordedEvent event : record(recording)) {
+            assertFalse(event.getEventType().getName().startsWith("com.tapstream.rollbar."));
+        }
+    }
+
+    /**
+     * Defines the appender's classes itself and hides {@code jdk.jfr}, like a runtime image built without that module.
+     */
+    private static class WithoutJfrClassLoader extends ClassLoader {
+
+        WithoutJfrClassLoader() {
+            super(TestJfrEvents.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (name.startsWith("jdk.jfr.")) {
+                throw new ClassNotFoundException(name);
+            }
+            if (!name.startsWith("com.tapstream.rollbar.")) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> loaded = findLoadedClass(name);
+                if (loaded == null) {
+                    loaded = define(name);
+                }
+                return loaded;
+            }
+        }
+
+        private Class<?> define(String name) throws ClassNotFoundException {
+            try (InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+                if (in == null) {
+                    throw new ClassNotFoundException(name);
+                }
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                for (int read; (read = in.read(buffer)) > 0; ) {
+                    bytes.write(buffer, 0, read);
+                }
+                return defineClass(name, bytes.toByteArray(), 0, bytes.size());
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+        }
+    }
+
+}
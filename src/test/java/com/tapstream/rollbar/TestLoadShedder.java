@@ -0,0 +1,103 @@
+package com.tapstream.rollbar;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestLoadShedder {
+
+    private static final long INTERVAL_MILLIS = 110;
+
+    private Map<String, String> context() {
+        Map<String, String> context = new HashMap<>();
+        context.put(RollbarFilter.REQUEST_URL, "http://example.com/");
+        context.put(RollbarFilter.REQUEST_HEADER_PREFIX + "Accept", "*/*");
+        context.put(RollbarFilter.REQUEST_PARAM_PREFIX + "q", "query");
+        context.put("person.id", "42");
+        context.put("tenant", "acme");
+        return context;
+    }
+
+    @Test
+    public void testReduce() {
+        Map<String, String> context = context();
+        assertSame(context, LoadShedder.reduce(context, LoadShedder.FULL));
+
+        Map<String, String> noRequest = LoadShedder.reduce(context, LoadShedder.NO_REQUEST_DATA);
+        assertEquals(3, noRequest.size());
+        assertTrue(noRequest.containsKey(RollbarFilter.REQUEST_URL));
+        assertTrue(noRequest.containsKey("tenant"));
+
+        Map<String, String> noCustom = LoadShedder.reduce(context, LoadShedder.NO_CUSTOM_DATA);
+        assertEquals(2, noCustom.size());
+        assertTrue(noCustom.containsKey(RollbarFilter.REQUEST_URL));
+        assertTrue(noCustom.containsKey("person.id"));
+    }
+
+    @Test
+    public void testCopyFiltersWhileCopying() {
+        Map<String, String> copy = new HashMap<>();
+        LoadShedder.copy(context(), copy, LoadShedder.NO_REQUEST_DATA);
+        assertEquals(3, copy.size());
+        assertFalse(copy.containsKey(RollbarFilter.REQUEST_HEADER_PREFIX + "Accept"));
+
+        copy.clear();
+        LoadShedder.copy(context(), copy, LoadShedder.FULL);
+        assertEquals(5, copy.size());
+
+        LoadShedder.copy(null, copy, LoadShedder.FULL);
+        assertEquals(5, copy.size());
+    }
+
+    @Test
+    public void testStepsUpWhenOverBudgetAndBackDown() throws Exception {
+        LoadShedder shedder = new LoadShedder(1000, 4);
+        for (int level = LoadShedder.FULL; level < LoadShedder.SAMPLING; level++) {
+            assertEquals(level, shedder.getLevel());
+            Thread.sleep(INTERVAL_MILLIS);
+            shedder.record(10000000, 0);
+        }
+        assertEquals(LoadShedder.SAMPLING, shedder.getLevel());
+
+        int kept = 0;
+        for (int i = 0; i < 8; i++) {
+            if (shedder.admit() != LoadShedder.SHED) {
+                kept++;
+            }
+        }
+        assertEquals(2, kept);
+        assertEquals(6, shedder.getShed());
+        assertEquals(2, shedder.getAdmitted(LoadShedder.SAMPLING));
+
+        for (int i = 0; i < 300; i++) {
+            shedder.record(0, 0);
+        }
+        Thread.sleep(INTERVAL_MILLIS);
+        shedder.record(0, 0);
+        assertEquals(LoadShedder.NO_CUSTOM_DATA, shedder.getLevel());
+    }
+
+    @Test
+    public void testStepsUpOnBacklog() throws Exception {
+        LoadShedder shedder = new LoadShedder(1000000, 10);
+        Thread.sleep(INTERVAL_MILLIS);
+        shedder.record(0, 0.9);
+        assertEquals(LoadShedder.NO_REQUEST_DATA, shedder.getLevel());
+    }
+
+    @Test
+    public void testWithinBudgetStaysFull() throws Exception {
+        LoadShedder shedder = new LoadShedder(1000000, 10);
+        Thread.sleep(INTERVAL_MILLIS);
+        shedder.record(1000, 0.1);
+        assertEquals(LoadShedder.FULL, shedder.getLevel());
+        assertFalse(shedder.admit() == LoadShedder.SHED);
+    }
+
+}
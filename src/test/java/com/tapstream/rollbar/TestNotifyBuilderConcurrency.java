@@ -0,0 +1,144 @@
+package com.tapstream.rollbar;
+
+import com.google.gson.JsonObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestNotifyBuilderConcurrency {
+
+    private static final int THREADS = 8;
+    private static final int EVENTS = 200;
+    private static final int ROUNDS = 5;
+
+    private final NotifyBuilder builder = new NotifyBuilder("api key", "test");
+    private final FrameDictionary frameStrings = new FrameDictionary(FrameDictionary.DEFAULT_CAPACITY);
+
+    @Before
+    public void setup() {
+        // The background lookup started by pipelines in other tests must not add a server block mid-test
+        NotifyBuilder.resolveServer();
+    }
+
+    private CapturedEvent event(int i) {
+        Map<String, String> context = new HashMap<>();
+        context.put("seq", Integer.toString(i));
+        context.put("person.id", "user-" + (i % 7));
+        context.put(RollbarFilter.REQUEST_METHOD, "GET");
+        context.put(RollbarFilter.REQUEST_PARAM_PREFIX + "q", "<query & " + i + ">");
+        Throwable throwable = i % 3 == 0 ? new IllegalStateException("failure " + i, new RuntimeException("cause")) : null;
+        ThrowableSnapshot snapshot = throwable == null ? null : ThrowableSnapshot.capture(throwable, frameStrings);
+        return new CapturedEvent("error", "message é " + i, snapshot, context, 1500000000000L + i);
+    }
+
+    @Test
+    public void testToBytesMatchesToString() {
+        for (int i = 0; i < 10; i++) {
+            JsonObject payload = builder.build(event(i));
+            assertArrayEquals(payload.toString().getBytes(StandardCharsets.UTF_8), builder.toBytes(payload));
+        }
+    }
+
+    @Test
+    public void testLargePayloadDoesNotLeakIntoNext() {
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            large.append("\u00e9\u4e2d\ud83d\ude00");
+        }
+        JsonObject big = builder.build("error", large.toString(), null, new HashMap<String, String>());
+        assertArrayEquals(big.toString().getBytes(StandardCharsets.UTF_8), builder.toBytes(big));
+
+        JsonObject small = builder.build(event(4));
+        assertArrayEquals(small.toString().getBytes(StandardCharsets.UTF_8), builder.toBytes(small));
+    }
+
+    @Test
+    public void testBuildWaitsForServerLookup() throws Exception {
+        NotifyBuilder.clearServer();
+        JsonObject server = builder.build(event(1)).getAsJsonObject("data").getAsJsonObject("server");
+        assertEquals(InetAddress.getLocalHost().getHostName(), server.get("host").getAsString());
+    }
+
+    @Test
+    public void testFailedServerLookupIsRetried() {
+        NotifyBuilder.ServerLookup failed = new NotifyBuilder.ServerLookup();
+        assertFalse(failed.canRetry(System.nanoTime() + TimeUnit.MINUTES.toNanos(1)));
+        failed.finish(false);
+        long later = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        assertFalse(failed.canRetry(System.nanoTime()));
+        assertTrue(failed.canRetry(later));
+
+        NotifyBuilder.ServerLookup succeeded = new NotifyBuilder.ServerLookup();
+        succeeded.finish(true);
+        assertFalse(succeeded.canRetry(later));
+    }
+
+    @Test
+    public void testPayloadsDoNotShareState() {
+        JsonObject first = builder.build(event(1));
+        JsonObject second = builder.build(event(2));
+        assertNotSame(first.getAsJsonObject("data").get("notifier"), second.getAsJsonObject("data").get("notifier"));
+
+        first.getAsJsonObject("data").getAsJsonObject("notifier").addProperty("name", "changed");
+        assertEquals("rollbar-java", builder.build(event(3)).getAsJsonObject("data")
+                .getAsJsonObject("notifier").get("name").getAsString());
+    }
+
+    @Test
+    public void testConcurrentBuildsAreByteExact() throws Exception {
+        final CapturedEvent[] events = new CapturedEvent[EVENTS];
+        final byte[][] expected = new byte[EVENTS][];
+        for (int i = 0; i < EVENTS; i++) {
+            events[i] = event(i);
+            expected[i] = builder.build(events[i]).toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                final int offset = t;
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        int mismatches = 0;
+                        for (int round = 0; round < ROUNDS; round++) {
+                            for (int n = 0; n < EVENTS; n++) {
+                                int i = (n + offset * 31) % EVENTS;
+                                if (!Arrays.equals(expected[i], builder.toBytes(builder.build(events[i])))) {
+                                    mismatches++;
+                                }
+                            }
+                        }
+                        return mismatches;
+                    }
+                }));
+            }
+            for (Future<Integer> result : results) {
+                assertEquals(Integer.valueOf(0), result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
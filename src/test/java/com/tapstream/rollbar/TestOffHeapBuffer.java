@@ -0,0 +1,131 @@
+package com.tapstream.rollbar;
+
+import org.junit.Test;
+
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestOffHeapBuffer {
+
+    private byte[] payload(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) i;
+        }
+        return data;
+    }
+
+    @Test
+    public void testRoundTripAcrossSlots() {
+        OffHeapBuffer buffer = new OffHeapBuffer(1024, 64);
+        byte[] data = payload(200);
+
+        OffHeapBuffer.Slice slice = buffer.write(data);
+        assertNotNull(slice);
+        assertEquals(256, buffer.getUsedBytes());
+
+        assertArrayEquals(data, buffer.read(slice));
+        assertEquals(0, buffer.getUsedBytes());
+    }
+
+    @Test
+    public void testFullBufferRejects() {
+        OffHeapBuffer buffer = new OffHeapBuffer(256, 64);
+        OffHeapBuffer.Slice first = buffer.write(payload(150));
+        assertNotNull(first);
+
+        assertNull(buffer.write(payload(100)));
+        assertEquals(1, buffer.getRejected());
+        assertEquals(192, buffer.getUsedBytes());
+
+        buffer.release(first);
+        assertNotNull(buffer.write(payload(256)));
+    }
+
+    @Test
+    public void testPayloadLargerThanBuffer() {
+        OffHeapBuffer buffer = new OffHeapBuffer(128, 64);
+        assertNull(buffer.write(payload(129)));
+        assertEquals(0, buffer.getUsedBytes());
+    }
+
+    @Test
+    public void testSlotCountNotMultipleOf64() {
+        OffHeapBuffer buffer = new OffHeapBuffer(70, 1);
+        OffHeapBuffer.Slice[] slices = new OffHeapBuffer.Slice[70];
+        for (int i = 0; i < slices.length; i++) {
+            slices[i] = buffer.write(new byte[]{(byte) i});
+            assertNotNull(slices[i]);
+        }
+        assertNull(buffer.write(new byte[]{1}));
+        for (int i = 0; i < slices.length; i++) {
+            assertArrayEquals(new byte[]{(byte) i}, buffer.read(slices[i]));
+        }
+    }
+
+    @Test
+    public void testQueuedPipelineUsesBuffer() throws Exception {
+        DeliveryPipeline pipeline = new DeliveryPipeline("offheap", new NotifyBuilder("api key", "test"), 10, 0, 1);
+        final byte[][] sent = new byte[1][];
+        pipeline.setTransport(new URL("http://rollbar.endpoint/"), new IHttpRequester() {
+            @Override
+            public int send(HttpRequest request) {
+                sent[0] = request.getBody();
+                return 200;
+            }
+        });
+        pipeline.setOffHeapBytes(64 * 1024);
+        pipeline.start();
+        pipeline.submit("error", "off heap", null, new HashMap<String, String>());
+        pipeline.stop(5000);
+
+        assertNotNull(sent[0]);
+        assertTrue(new String(sent[0], StandardCharsets.UTF_8).contains("\"body\":\"off heap\""));
+        assertEquals(0, pipeline.getOffHeapUsed());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCapacityOverIntRangeIsRejected() {
+        new OffHeapBuffer(3L * 1024 * 1024 * 1024, OffHeapBuffer.DEFAULT_SLOT_SIZE);
+    }
+
+    @Test
+    public void testInvalidSizeFallsBackToHeap() throws Exception {
+        DeliveryPipeline pipeline = new DeliveryPipeline("offheap", new NotifyBuilder("api key", "test"), 10, 0, 1);
+        final byte[][] sent = new byte[1][];
+        pipeline.setTransport(new URL("http://rollbar.endpoint/"), new IHttpRequester() {
+            @Override
+            public int send(HttpRequest request) {
+                sent[0] = request.getBody();
+                return 200;
+            }
+        });
+        pipeline.setOffHeapBytes(100);
+        pipeline.start();
+        pipeline.submit("error", "on heap", null, new HashMap<String, String>());
+        pipeline.stop(5000);
+
+        assertNotNull(sent[0]);
+        assertEquals(0, pipeline.getOffHeapUsed());
+    }
+
+    @Test
+    public void testAppenderIgnoresInvalidSize() {
+        RollbarAppender appender = RollbarAppender.newBuilder().setName("offheap").setApiKey("api key")
+                .setEnvironment("test").setQueueSize(10).setOffHeapBytes(3L * 1024 * 1024 * 1024).build();
+        appender.start();
+        try {
+            assertTrue(appender.isStarted());
+        } finally {
+            appender.stop();
+        }
+    }
+
+}
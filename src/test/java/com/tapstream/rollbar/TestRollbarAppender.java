@@ -16,6 +16,7 @@ import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 public class TestRollbarAppender {
     
@@ -25,6 +26,7 @@ public class TestRollbarAppender {
 
     private MockHttpRequester httpRequester;
     private Logger rootLogger;
+    private RollbarAppender appender;
 
     @Before
     public void setup() {
@@ -33,7 +35,7 @@ public class TestRollbarAppender {
         rootLogger = LogManager.getLogger();
         Map<String, Appender> appenderMap = ((org.apache.logging.log4j.core.Logger) rootLogger).getAppenders();
 
-        RollbarAppender appender = (RollbarAppender) appenderMap.get("rollbar");
+        appender = (RollbarAppender) appenderMap.get("rollbar");
         appender.setUrl(endpoint);
         appender.setEnvironment(env);
         appender.setApiKey(apiKey);
@@ -122,8 +124,15 @@ public class TestRollbarAppender {
         JsonObject custom = data.getAsJsonObject("custom");
         assertEquals(testMsg, custom.get("log").getAsString());
     }
-    
-    
-    
+
+    @Test
+    public void testNullUrlIsRejected() throws Exception {
+        assertNull(RollbarAppender.parseUrls(null));
+    }
+
+    @Test
+    public void testRouteFromConfiguration() throws Exception {
+        assertNotNull(appender.getPipeline("routed"));
+    }
 
 }
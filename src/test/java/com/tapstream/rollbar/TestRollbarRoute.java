@@ -0,0 +1,144 @@
+package com.tapstream.rollbar;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.MarkerManager;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestRollbarRoute {
+
+    private LogEvent event(String loggerName, String marker) {
+        return Log4jLogEvent.newBuilder()
+                .setLoggerName(loggerName)
+                .setMarker(marker == null ? null : MarkerManager.getMarker(marker))
+                .setLevel(Level.ERROR)
+                .setMessage(new SimpleMessage("test"))
+                .build();
+    }
+
+    private RollbarRoute route(String loggerPrefix, String marker, String contextKey, String contextValue) {
+        return RollbarRoute.newBuilder().setName("route").setLoggerPrefix(loggerPrefix).setMarker(marker)
+                .setContextKey(contextKey).setContextValue(contextValue).setApiKey("route key").build();
+    }
+
+    @Test
+    public void testRouteNeedsCriteria() {
+        assertNull(route(null, null, null, null));
+    }
+
+    @Test
+    public void testRoutesQueueByDefault() {
+        assertEquals(RollbarRoute.DEFAULT_QUEUE_SIZE, route("com.example.billing", null, null, null).getQueueSize());
+    }
+
+    @Test
+    public void testLoggerPrefix() {
+        RollbarRoute route = route("com.example.billing", null, null, null);
+        Map<String, String> context = new HashMap<>();
+        assertTrue(route.matches(event("com.example.billing.Invoices", null), context));
+        assertFalse(route.matches(event("com.example.search.Index", null), context));
+    }
+
+    @Test
+    public void testMarker() {
+        RollbarRoute route = route(null, "PAYMENTS", null, null);
+        Map<String, String> context = new HashMap<>();
+        assertTrue(route.matches(event("any", "PAYMENTS"), context));
+        assertFalse(route.matches(event("any", "OTHER"), context));
+        assertFalse(route.matches(event("any", null), context));
+    }
+
+    @Test
+    public void testContextKeyAndValue() {
+        RollbarRoute route = route(null, null, "tenant", "acme");
+        Map<String, String> context = new HashMap<>();
+        assertFalse(route.matches(event("any", null), context));
+        context.put("tenant", "other");
+        assertFalse(route.matches(event("any", null), context));
+        context.put("tenant", "acme");
+        assertTrue(route.matches(event("any", null), context));
+    }
+
+    @Test
+    public void testAppenderDispatchesToRoutePipeline() throws Exception {
+        // Sent on the logging thread, so each request can be checked right after the append
+        RollbarRoute route = RollbarRoute.newBuilder().setName("route").setLoggerPrefix("com.example.billing")
+                .setApiKey("route key").setQueueSize(0).build();
+        RollbarAppender appender = RollbarAppender.newBuilder().setName("routed").setUrl("http://rollbar.endpoint/")
+                .setApiKey("api key").setEnvironment("test").setRoutes(route).build();
+        MockHttpRequester requester = new MockHttpRequester();
+        appender.setHttpRequester(requester);
+        appender.start();
+        try {
+            appender.append(event("com.example.billing.Invoices", null));
+            assertTrue(new String(requester.getRequest().getBody()).contains("\"access_token\":\"route key\""));
+
+            appender.append(event("com.example.search.Index", null));
+            assertTrue(new String(requester.getRequest().getBody()).contains("\"access_token\":\"api key\""));
+        } finally {
+            appender.stop();
+        }
+        assertEquals(0, appender.getPipeline("route").getDropped());
+    }
+
+    @Test
+    public void testFullRouteQueueDoesNotAffectDefaultPipeline() throws Exception {
+        RollbarRoute route = RollbarRoute.newBuilder().setName("billing").setLoggerPrefix("com.example.billing")
+                .setUrl("http://billing.endpoint/").setQueueSize(2).build();
+        RollbarAppender appender = RollbarAppender.newBuilder().setName("isolated").setUrl("http://rollbar.endpoint/")
+                .setApiKey("api key").setEnvironment("test").setQueueSize(100).setRoutes(route).build();
+
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger delivered = new AtomicInteger();
+        appender.setHttpRequester(new IHttpRequester() {
+            @Override
+            public int send(HttpRequest request) throws IOException {
+                if (request.getUrl().toExternalForm().equals("http://billing.endpoint/")) {
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                } else {
+                    delivered.incrementAndGet();
+                }
+                return 200;
+            }
+        });
+        appender.start();
+        try {
+            for (int i = 0; i < 10; i++) {
+                appender.append(event("com.example.billing.Invoices", null));
+            }
+            for (int i = 0; i < 20; i++) {
+                appender.append(event("com.example.search.Index", null));
+            }
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (delivered.get() < 20 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(20, delivered.get());
+            assertEquals(0, appender.getDefaultPipeline().getDropped());
+            assertTrue(appender.getPipeline("billing").getDropped() >= 7);
+        } finally {
+            release.countDown();
+            appender.stop();
+        }
+    }
+
+}
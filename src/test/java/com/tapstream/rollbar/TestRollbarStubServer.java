@@ -0,0 +1,93 @@
+package com.tapstream.rollbar;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestRollbarStubServer {
+
+    private RollbarStubServer server;
+    private HttpRequester requester;
+
+    @Before
+    public void setup() throws Exception {
+        server = new RollbarStubServer();
+        requester = new HttpRequester();
+        requester.setTimeout(2000);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        server.close();
+    }
+
+    private HttpRequest request() {
+        HttpRequest request = new HttpRequest(server.getUrl(), "POST");
+        request.setHeader("Content-Type", "application/json");
+        request.setBody("{\"access_token\":\"api key\"}");
+        return request;
+    }
+
+    @Test
+    public void testAccepts() throws Exception {
+        assertEquals(200, requester.send(request()));
+        assertEquals(1, server.getAccepted());
+        assertEquals("{\"access_token\":\"api key\"}", server.getLastBody());
+    }
+
+    @Test
+    public void testThrottlesWithRetryAfter() throws Exception {
+        server.setThrottleRate(1);
+        server.setRetryAfterSeconds(7);
+        HttpURLConnection connection = (HttpURLConnection) server.getUrl().openConnection();
+        try {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.getOutputStream().write("{}".getBytes("UTF-8"));
+            assertEquals(429, connection.getResponseCode());
+            assertEquals("7", connection.getHeaderField("Retry-After"));
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        server.setErrorRate(1);
+        assertEquals(500, requester.send(request()));
+        assertEquals(1, server.getErrors());
+    }
+
+    @Test
+    public void testResetsConnection() throws Exception {
+        server.setResetRate(1);
+        try {
+            requester.send(request());
+            fail("Expected the connection to be reset");
+        } catch (IOException e) {
+            assertTrue(server.getResets() >= 1);
+        }
+    }
+
+    @Test
+    public void testLoadThroughQueuedAppender() throws Exception {
+        RollbarAppender appender = RollbarAppender.newBuilder().setName("load").setUrl(server.getUrl().toString())
+                .setApiKey("api key").setEnvironment("test").setQueueSize(1000).setBatchSize(50).setSenderThreads(2)
+                .build();
+        appender.start();
+
+        LoadGenerator.Report report = new LoadGenerator(appender, server, 4, 50).run();
+
+        assertEquals(200, report.getEvents());
+        assertEquals(0, report.getLost());
+        assertTrue(report.percentileNanos(50) <= report.percentileNanos(99));
+    }
+
+}
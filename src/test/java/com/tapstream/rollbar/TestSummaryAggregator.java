@@ -0,0 +1,225 @@
+package com.tapstream.rollbar;
+
+import com.google.gson.JsonObject;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestSummaryAggregator {
+
+    private final Map<String, String> context = new HashMap<>();
+
+    private Map<String, CapturedEvent> byMessage(List<CapturedEvent> summaries) {
+        Map<String, CapturedEvent> result = new HashMap<>();
+        for (CapturedEvent summary : summaries) {
+            result.put(summary.getMessage(), summary);
+        }
+        return result;
+    }
+
+    @Test
+    public void testCountsByFingerprint() {
+        SummaryAggregator aggregator = new SummaryAggregator(100, new FrameDictionary(FrameDictionary.DEFAULT_CAPACITY));
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(aggregator.record("warn", "disk almost full", null, context));
+        }
+        for (int i = 0; i < 10; i++) {
+            aggregator.record("warn", "slow query", null, context);
+        }
+
+        Map<String, CapturedEvent> summaries = byMessage(aggregator.drain());
+        assertEquals(2, summaries.size());
+        assertEquals("1000", summaries.get("disk almost full").getContext().get(SummaryAggregator.COUNT_KEY));
+        assertEquals("10", summaries.get("slow query").getContext().get(SummaryAggregator.COUNT_KEY));
+        assertNotNull(summaries.get("slow query").getContext().get(SummaryAggregator.RATE_KEY));
+    }
+
+    @Test
+    public void testDrainResetsAndForgetsIdleFingerprints() {
+        SummaryAggregator aggregator = new SummaryAggregator(100, new FrameDictionary(FrameDictionary.DEFAULT_CAPACITY));
+        aggregator.record("warn", "once", null, context);
+        assertEquals(1, aggregator.drain().size());
+        assertTrue(aggregator.drain().isEmpty());
+        assertEquals(0, aggregator.size());
+    }
+
+    @Test
+    public void testRepresentativeKeepsStackTrace() {
+        SummaryAggregator aggregator = new SummaryAggregator(100, new FrameDictionary(FrameDictionary.DEFAULT_CAPACITY));
+        for (int i = 0; i < 5; i++) {
+            aggregator.record("warn", "failed " + i, new IllegalStateException("boom " + i), context);
+        }
+        List<CapturedEvent> summaries = aggregator.drain();
+        assertEquals(1, summaries.size());
+        CapturedEvent summary = summaries.get(0);
+        assertEquals("failed 0", summary.getMessage());
+
+        JsonObject data = new NotifyBuilder("api key", "test").build(summary).getAsJsonObject("data");
+        assertEquals("5", data.getAsJsonObject("custom").get(SummaryAggregator.COUNT_KEY).getAsString());
+        assertEquals("boom 0", data.getAsJsonObject("body").getAsJsonArray("trace_chain").get(0).getAsJsonObject()
+                .getAsJsonObject("exception").get("message").getAsString());
+    }
+
+    @Test
+    public void testFullTableRejectsNewFingerprints() {
+        SummaryAggregator aggregator = new SummaryAggregator(1, new FrameDictionary(FrameDictionary.DEFAULT_CAPACITY));
+        assertTrue(aggregator.record("warn", "first", null, context));
+        assertFalse(aggregator.record("warn", "second", null, context));
+        assertTrue(aggregator.record("warn", "first", null, context));
+    }
+
+    private Throwable fromFirstSite() {
+        return new IllegalStateException("boom");
+    }
+
+    private Throwable fromSecondSite() {
+        return new IllegalStateException("boom");
+    }
+
+    @Test
+    public void testSameExceptionClassFromDifferentSitesIsNotMerged() {
+        SummaryAggregator aggregator = new SummaryAggregator(100, new FrameDictionary(FrameDictionary.DEFAULT_CAPACITY));
+        aggregator.record("warn", "failed", fromFirstSite(), context);
+        aggregator.record("warn", "failed", fromSecondSite(), context);
+        aggregator.record("warn", "failed", fromSecondSite(), context);
+
+        List<CapturedEvent> summaries = aggregator.drain();
+        assertEquals(2, summaries.size());
+    }
+
+    @Test
+    public void testConcurrentDrainsLoseNoCounts() throws Exception {
+        final SummaryAggregator aggregator = new SummaryAggregator(100, new FrameDictionary(FrameDictionary.DEFAULT_CAPACITY));
+        final int threads = 4;
+        final int perThread = 20000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        aggregator.record("warn", "message " + (i % 3), null, context);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        long total = 0;
+        while (done.getCount() > 0) {
+            total += countOf(aggregator.drain());
+        }
+        total += countOf(aggregator.drain());
+        assertEquals(threads * perThread, total);
+    }
+
+    private long countOf(List<CapturedEvent> summaries) {
+        long count = 0;
+        for (CapturedEvent summary : summaries) {
+            count += Long.parseLong(summary.getContext().get(SummaryAggregator.COUNT_KEY));
+        }
+        return count;
+    }
+
+    private DeliveryPipeline summarizingPipeline(double rateLimit, long intervalSeconds, final long latencyMillis,
+                                                 final AtomicInteger sent) throws Exception {
+        DeliveryPipeline pipeline = new DeliveryPipeline("summary", new NotifyBuilder("api key", "test"), 0, rateLimit, 1);
+        pipeline.setTransport(new URL("http://rollbar.endpoint/"), new IHttpRequester() {
+            @Override
+            public int send(HttpRequest request) throws IOException {
+                try {
+                    Thread.sleep(latencyMillis);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                sent.incrementAndGet();
+                return 200;
+            }
+        });
+        pipeline.setSummaryIntervalSeconds(intervalSeconds);
+        pipeline.start();
+        return pipeline;
+    }
+
+    @Test
+    public void testRateLimitedSummariesWaitInsteadOfDropping() throws Exception {
+        AtomicInteger sent = new AtomicInteger();
+        DeliveryPipeline pipeline = summarizingPipeline(20, 1, 0, sent);
+        try {
+            for (int i = 0; i < 30; i++) {
+                pipeline.summarize("warn", "fingerprint " + i, null, context);
+            }
+            long deadline = System.currentTimeMillis() + 5000;
+            while (sent.get() < 30 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(30, sent.get());
+            assertEquals(0, pipeline.getDropped());
+        } finally {
+            pipeline.stop(1000);
+        }
+    }
+
+    @Test
+    public void testFinalSummariesCountAgainstStopTimeout() throws Exception {
+        AtomicInteger sent = new AtomicInteger();
+        DeliveryPipeline pipeline = summarizingPipeline(0, 3600, 100, sent);
+        for (int i = 0; i < 100; i++) {
+            pipeline.summarize("warn", "fingerprint " + i, null, context);
+        }
+
+        long start = System.currentTimeMillis();
+        pipeline.stop(300);
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertTrue(sent.get() < 100);
+    }
+
+    @Test
+    public void testAppenderSummarizesLowLevels() throws Exception {
+        RollbarAppender appender = RollbarAppender.newBuilder().setName("summary").setUrl("http://rollbar.endpoint/")
+                .setApiKey("api key").setEnvironment("test").setSummaryLevel(Level.WARN)
+                .setSummaryIntervalSeconds(3600).build();
+        final List<String> sent = new ArrayList<>();
+        appender.setHttpRequester(new IHttpRequester() {
+            @Override
+            public int send(HttpRequest request) {
+                sent.add(new String(request.getBody()));
+                return 200;
+            }
+        });
+        appender.start();
+        for (int i = 0; i < 50; i++) {
+            appender.append(event(Level.WARN, "noisy warning"));
+        }
+        appender.append(event(Level.ERROR, "real error"));
+        assertEquals(1, sent.size());
+
+        appender.stop();
+        assertEquals(2, sent.size());
+        assertTrue(sent.get(1).contains("\"summary.count\":\"50\""));
+    }
+
+    private Log4jLogEvent event(Level level, String message) {
+        return Log4jLogEvent.newBuilder()
+                .setLoggerName("summary")
+                .setLevel(level)
+                .setMessage(new SimpleMessage(message))
+                .build();
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.tapstream.rollbar;
+
+import com.google.gson.JsonObject;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestThrowableSnapshot {
+
+    private final FrameDictionary frameStrings = new FrameDictionary(FrameDictionary.DEFAULT_CAPACITY);
+
+    private Throwable chain() {
+        return new IllegalStateException("outer", new RuntimeException("inner"));
+    }
+
+    @Test
+    public void testSnapshotMatchesThrowable() {
+        Throwable throwable = chain();
+        ThrowableSnapshot snapshot = ThrowableSnapshot.capture(throwable, frameStrings);
+
+        assertEquals(2, snapshot.size());
+        assertEquals("java.lang.IllegalStateException", snapshot.getClassName(0));
+        assertEquals("outer", snapshot.getMessage(0));
+        assertEquals("java.lang.RuntimeException", snapshot.getClassName(1));
+        assertFramesEqual(throwable.getStackTrace(), snapshot.getStackTrace(0));
+        assertFramesEqual(throwable.getCause().getStackTrace(), snapshot.getStackTrace(1));
+    }
+
+    private void assertFramesEqual(StackTraceElement[] expected, StackTraceElement[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i].getClassName(), actual[i].getClassName());
+            assertEquals(expected[i].getMethodName(), actual[i].getMethodName());
+            assertEquals(expected[i].getFileName(), actual[i].getFileName());
+            assertEquals(expected[i].getLineNumber(), actual[i].getLineNumber());
+        }
+    }
+
+    @Test
+    public void testQueuedPayloadMatchesDirectPayload() {
+        NotifyBuilder builder = new NotifyBuilder("api key", "test");
+        Throwable throwable = chain();
+        Map<String, String> context = new HashMap<>();
+        context.put("key", "value");
+
+        JsonObject direct = builder.build("error", "test", throwable, context);
+        JsonObject queued = builder.build(CapturedEvent.capture("error", "test", throwable, context, frameStrings));
+
+        direct.getAsJsonObject("data").remove("timestamp");
+        queued.getAsJsonObject("data").remove("timestamp");
+        assertEquals(direct, queued);
+    }
+
+    @Test
+    public void testFingerprintHashMatchesThrowable() {
+        Throwable throwable = chain();
+        assertEquals(NotifyBuilder.fingerprintHash("test", throwable),
+                     CapturedEvent.capture("error", "test", throwable, null, frameStrings).getFingerprintHash());
+        assertEquals(NotifyBuilder.fingerprintHash("test", null),
+                     CapturedEvent.capture("error", "test", null, null, frameStrings).getFingerprintHash());
+    }
+
+    @Test
+    public void testFramesShareDictionaryStrings() {
+        ThrowableSnapshot first = ThrowableSnapshot.capture(chain(), frameStrings);
+        ThrowableSnapshot second = ThrowableSnapshot.capture(chain(), frameStrings);
+        assertSame(first.getStackTrace(0)[0].getClassName(), second.getStackTrace(0)[0].getClassName());
+        assertSame(first.getStackTrace(0)[0].getMethodName(), second.getStackTrace(0)[0].getMethodName());
+    }
+
+    @Test
+    public void testDictionaryIsBounded() {
+        StringDictionary dictionary = new StringDictionary(2);
+        assertEquals(0, dictionary.idOf("a"));
+        assertEquals(1, dictionary.idOf("b"));
+        assertEquals(StringDictionary.NOT_INTERNED, dictionary.idOf("c"));
+        assertEquals(0, dictionary.idOf("a"));
+        assertEquals(StringDictionary.NULL_ID, dictionary.idOf(null));
+        assertNull(dictionary.valueOf(StringDictionary.NULL_ID));
+        assertEquals("b", dictionary.valueOf(1));
+        assertEquals(2, dictionary.size());
+    }
+
+    @Test
+    public void testFullDictionaryIsReplaced() {
+        FrameDictionary small = new FrameDictionary(8);
+        Throwable throwable = chain();
+        ThrowableSnapshot snapshot = ThrowableSnapshot.capture(throwable, small);
+
+        assertTrue(small.getResets() > 0);
+        assertTrue(small.size() <= small.getCapacity());
+        assertFramesEqual(throwable.getStackTrace(), snapshot.getStackTrace(0));
+        assertFramesEqual(throwable.getCause().getStackTrace(), snapshot.getStackTrace(1));
+    }
+
+    @Test
+    public void testSnapshotKeepsItsDictionaryAfterReset() {
+        FrameDictionary dictionary = new FrameDictionary(FrameDictionary.DEFAULT_CAPACITY);
+        Throwable throwable = chain();
+        ThrowableSnapshot snapshot = ThrowableSnapshot.capture(throwable, dictionary);
+        dictionary.reset(dictionary.current());
+
+        assertEquals(1, dictionary.getResets());
+        assertEquals(0, dictionary.size());
+        assertFramesEqual(throwable.getStackTrace(), snapshot.getStackTrace(0));
+    }
+
+}
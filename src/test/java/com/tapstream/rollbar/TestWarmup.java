@@ -0,0 +1,64 @@
+package com.tapstream.rollbar;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestWarmup {
+
+    private RollbarStubServer server;
+
+    @Before
+    public void setup() throws Exception {
+        server = new RollbarStubServer();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void testTouchesEndpointWithoutSendingItems() throws Exception {
+        NotifyBuilder builder = new NotifyBuilder("api key", "test");
+        new Warmup(builder, Collections.singletonList(server.getUrl()), new HttpRequester()).run();
+
+        assertEquals(1, server.getHeads());
+        assertEquals(0, server.getReceived());
+    }
+
+    @Test
+    public void testConnectionIsReusedAfterWarmup() throws Exception {
+        HttpRequester requester = new HttpRequester();
+        new Warmup(null, Collections.singletonList(server.getUrl()), requester).run();
+
+        HttpRequest request = new HttpRequest(server.getUrl(), "POST");
+        request.setBody("{}");
+        assertEquals(200, requester.send(request));
+        assertEquals(200, requester.send(request));
+        assertEquals(2, server.getAccepted());
+        assertEquals(1, server.getConnections());
+    }
+
+    @Test
+    public void testAppenderStartDoesNotWaitForWarmup() throws Exception {
+        RollbarAppender appender = RollbarAppender.newBuilder().setName("warmup").setUrl(server.getUrl().toString())
+                .setApiKey("api key").setEnvironment("test").setQueueSize(100).setWarmUp(true).build();
+        long start = System.nanoTime();
+        appender.start();
+        assertTrue((System.nanoTime() - start) / 1000000 < 1000);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getHeads() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        appender.stop();
+        assertEquals(1, server.getHeads());
+    }
+
+}